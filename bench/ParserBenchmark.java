@@ -0,0 +1,131 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * @author Brian Song
+ * @description Compares parsing throughput of Parser against the original split based LegacyParser
+ *
+ * Usage: java ParserBenchmark [commands] [iterations]
+ */
+public class ParserBenchmark {
+	private static final String[] SEGMENTS = {"local", "argument", "this", "that", "temp", "static", "pointer"};
+	private static final String[] ARITHMETIC = {"add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not"};
+
+	public static void main(String[] args) throws Exception {
+		int commands = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		File input = File.createTempFile("ParserBenchmark", ".vm");
+		input.deleteOnExit();
+		writeProgram(input, commands);
+		double megabytes = input.length() / (1024.0 * 1024.0);
+		System.out.printf("%d commands, %.1f MB%n", commands, megabytes);
+
+		// warm up both parsers before measuring
+		for(int i = 0; i < 3; i++) {
+			parseLegacy(input);
+			parse(input);
+		}
+
+		long legacyTime = 0;
+		long time = 0;
+		long checksum = 0;
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			checksum += parseLegacy(input);
+			legacyTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			checksum -= parse(input);
+			time += System.nanoTime() - start;
+		}
+		if(checksum != 0) {
+			throw new IllegalStateException("Parsers disagree on input");
+		}
+
+		report("LegacyParser", legacyTime, iterations, megabytes, commands);
+		report("Parser", time, iterations, megabytes, commands);
+		System.out.printf("speedup: %.2fx%n", (double) legacyTime / time);
+	}
+
+	/**
+	 * Writes a pseudo random VM program of the given length, including comments and blank lines
+	 * @param output   file to write program in
+	 * @param commands number of commands to write
+	 * @throws IOException if file could not be written
+	 */
+	private static void writeProgram(File output, int commands) throws IOException {
+		Random random = new Random(42);
+		PrintWriter writer = new PrintWriter(output);
+		for(int i = 0; i < commands; i++) {
+			int kind = random.nextInt(10);
+			if(kind < 4) {
+				writer.println("push " + SEGMENTS[random.nextInt(SEGMENTS.length)] + " " + random.nextInt(8));
+			}
+			else if(kind < 5) {
+				writer.println("push constant " + random.nextInt(32768) + "   // constant");
+			}
+			else if(kind < 7) {
+				writer.println("pop " + SEGMENTS[random.nextInt(SEGMENTS.length)] + " " + random.nextInt(8));
+			}
+			else if(kind < 9) {
+				writer.println("    " + ARITHMETIC[random.nextInt(ARITHMETIC.length)]);
+			}
+			else {
+				writer.println("// loop " + i);
+				writer.println("label LOOP" + i);
+				writer.println();
+				writer.println("if-goto LOOP" + i);
+			}
+		}
+		writer.close();
+	}
+
+	/**
+	 * Parses input with LegacyParser, reading every field like VMTranslator does
+	 * @return checksum of parsed fields
+	 */
+	private static long parseLegacy(File input) throws Exception {
+		LegacyParser p = new LegacyParser(input);
+		long checksum = 0;
+		while(true) {
+			int type = p.commandType();
+			checksum += type + p.arg1().length();
+			if(type == LegacyParser.C_PUSH || type == LegacyParser.C_POP) {
+				checksum += p.arg2();
+			}
+			if(p.hasMoreCommands()) {
+				p.advance();
+			} else break;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Parses input with Parser, reading every field like VMTranslator does
+	 * @return checksum of parsed fields
+	 */
+	private static long parse(File input) throws Exception {
+		Parser p = new Parser(input);
+		long checksum = 0;
+		while(true) {
+			int type = p.commandType();
+			checksum += type + p.arg1().length();
+			if(type == Parser.C_PUSH || type == Parser.C_POP) {
+				checksum += p.arg2();
+			}
+			if(p.hasMoreCommands()) {
+				p.advance();
+			} else break;
+		}
+		return checksum;
+	}
+
+	private static void report(String name, long nanos, int iterations, double megabytes, int commands) {
+		double seconds = nanos / 1e9 / iterations;
+		System.out.printf("%-12s %8.1f ms  %8.1f MB/s  %10.0f commands/s%n",
+				name, seconds * 1000, megabytes / seconds, commands / seconds);
+	}
+}
@@ -0,0 +1,109 @@
+import java.io.File;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import benchmarks.Workload;
+
+/**
+ * @author Brian Song
+ * @description Operations measured by benchmarks.TranslatorBenchmark, on a corpus written by VMCorpusGenerator
+ * Emission goes through VMTranslator.writeFile, so every VM level optimization the flags select is measured
+ */
+public class TranslatorWorkload implements Workload {
+	private File dir;				// directory of corpus
+	private File[] files;			// .vm files of corpus, in translation order
+	private List<List<Command>> parsed;	// commands of each file
+	private Options options;		// options of translation
+
+	@Override
+	public void setUp(int commands, String flags) throws Exception {
+		String[] args = flags.trim().isEmpty() ? new String[0] : flags.trim().split("\\s+");
+		options = Options.parse(args);
+		dir = new File(System.getProperty("java.io.tmpdir"), "TranslatorBenchmark" + commands);
+		VMCorpusGenerator.generate(dir, commands, 42);
+		files = dir.listFiles((d, name) -> name.endsWith(".vm"));
+		Arrays.sort(files);
+		parsed = new ArrayList<List<Command>>();
+		for(File f : files) {
+			parsed.add(parse(f));
+		}
+	}
+
+	@Override
+	public long lex() throws Exception {
+		long checksum = 0;
+		for(File f : files) {
+			Parser p = new Parser(f);
+			while(true) {
+				Command cmd = p.command();
+				checksum += cmd.opcode().ordinal() + cmd.index();
+				if(p.hasMoreCommands()) {
+					p.advance();
+				} else break;
+			}
+			p.close();
+		}
+		return checksum;
+	}
+
+	@Override
+	public long emit() {
+		CountingWriter out = new CountingWriter();
+		CodeWriter cw = new CodeWriter(out);
+		cw.setOptions(options);
+		cw.writeInit();
+		for(int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			// the translator's own path, including the VM level optimizations of each block
+			VMTranslator.writeFile(name.substring(0, name.indexOf('.')), parsed.get(i), cw, options);
+		}
+		cw.writeSharedRoutines();
+		cw.close();
+		return out.count;
+	}
+
+	@Override
+	public Object translate() throws Exception {
+		return VMTranslator.translate(dir, options);
+	}
+
+	private static List<Command> parse(File f) throws Exception {
+		ArrayList<Command> cmds = new ArrayList<Command>();
+		Parser p = new Parser(f);
+		while(true) {
+			cmds.add(p.command());
+			if(p.hasMoreCommands()) {
+				p.advance();
+			} else break;
+		}
+		p.close();
+		return cmds;
+	}
+
+	/**
+	 * Writer that only counts the characters written to it
+	 */
+	private static class CountingWriter extends Writer {
+		long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
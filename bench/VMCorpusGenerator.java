@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * @author Brian Song
+ * @description Generates seeded, Jack compiler like VM programs of configurable size for benchmarks
+ * Programs have classes of functions with locals, while loops, if branches, calls, array accesses
+ * and push/pop over every segment. Calls only go to functions of later classes and loops are counted,
+ * so generated programs always terminate, and Sys.init ends in the usual halt loop
+ *
+ * Usage: java VMCorpusGenerator outputDir [commands] [seed]
+ */
+public class VMCorpusGenerator {
+	private static final int FUNCTIONS_PER_CLASS = 8;
+	private static final int COMMANDS_PER_FUNCTION = 60;
+	private static final String[] OPERATIONS = {"add", "sub", "and", "or"};
+	private static final String[] COMPARISONS = {"eq", "gt", "lt"};
+
+	private final Random random;
+	private final int classes;
+	private final int[] numArgs;	// arguments of each function, by global function index
+	private final int[] numLocals;	// locals of each function, by global function index
+	private PrintWriter out;
+	private int written;			// commands written so far
+	private int labels;				// labels created in current function
+	private String function;		// name of function being written
+	private int current;			// global index of function being written
+
+	private VMCorpusGenerator(int commands, long seed) {
+		random = new Random(seed);
+		classes = Math.max(1, commands / (FUNCTIONS_PER_CLASS * COMMANDS_PER_FUNCTION));
+		numArgs = new int[classes * FUNCTIONS_PER_CLASS];
+		numLocals = new int[classes * FUNCTIONS_PER_CLASS];
+		for(int g = 0; g < numArgs.length; g++) {
+			numArgs[g] = random.nextInt(4);
+			numLocals[g] = random.nextInt(6);
+		}
+	}
+
+	/**
+	 * Writes a program of about the given number of commands into a directory
+	 * One Class<n>.vm file per class plus Sys.vm
+	 *
+	 * @param dir      directory to write .vm files in, created if missing
+	 * @param commands approximate number of commands to generate
+	 * @param seed     seed of generator, equal seeds give equal programs
+	 * @return number of commands written
+	 * @throws IOException if a file could not be written
+	 */
+	public static int generate(File dir, int commands, long seed) throws IOException {
+		dir.mkdirs();
+		VMCorpusGenerator generator = new VMCorpusGenerator(commands, seed);
+		for(int c = 0; c < generator.classes; c++) {
+			generator.writeClass(new File(dir, "Class" + c + ".vm"), c);
+		}
+		generator.writeSys(new File(dir, "Sys.vm"));
+		return generator.written;
+	}
+
+	private void writeSys(File file) throws IOException {
+		out = new PrintWriter(file);
+		function = "Sys.init";
+		labels = 0;
+		line("function Sys.init 0");
+		// call the first function of a few classes, leaving the rest of the program unreachable
+		for(int c = 0; c < classes; c += 3) {
+			int g = c * FUNCTIONS_PER_CLASS;
+			for(int i = 0; i < numArgs[g]; i++) {
+				line("push constant " + random.nextInt(50));
+			}
+			line("call " + name(g) + " " + numArgs[g]);
+			line("pop static " + (c % 8));
+		}
+		line("label HALT");
+		line("goto HALT");
+		out.close();
+	}
+
+	private void writeClass(File file, int c) throws IOException {
+		out = new PrintWriter(file);
+		out.println("// generated class " + c);
+		for(int j = 0; j < FUNCTIONS_PER_CLASS; j++) {
+			writeFunction(c * FUNCTIONS_PER_CLASS + j);
+			out.println();
+		}
+		out.close();
+	}
+
+	private void writeFunction(int g) {
+		current = g;
+		function = name(g);
+		labels = 0;
+		line("function " + function + " " + numLocals[g]);
+		// this and that point at a private heap area, so writes through them stay away from the stack
+		line("push constant " + (2048 + (g % 200) * 64));
+		line("pop pointer 0");
+		line("push constant " + (2048 + (g % 200) * 64 + 32));
+		line("pop pointer 1");
+		int calls = 0;
+		int end = written + COMMANDS_PER_FUNCTION;
+		while(written < end) {
+			int kind = random.nextInt(100);
+			if(kind < 40) {
+				writeLet();
+			}
+			else if(kind < 55 && numLocals[g] > 0) {
+				writeWhile();
+			}
+			else if(kind < 70) {
+				writeIf();
+			}
+			else if(kind < 85 && calls < 2 && hasCallee()) {
+				writeCall();
+				calls++;
+			}
+			else {
+				writeArray();
+			}
+		}
+		writeExpression();
+		line("return");
+	}
+
+	private void writeLet() {
+		writeExpression();
+		line("pop " + destination());
+	}
+
+	/**
+	 * Counted while loop over local 0, which no other statement writes
+	 */
+	private void writeWhile() {
+		String loop = label("WHILE_EXP");
+		String exit = label("WHILE_END");
+		line("push constant 0");
+		line("pop local 0");
+		line("label " + loop);
+		line("push local 0");
+		line("push constant " + (1 + random.nextInt(3)));
+		line("lt");
+		line("not");
+		line("if-goto " + exit);
+		int statements = 1 + random.nextInt(3);
+		for(int i = 0; i < statements; i++) {
+			if(random.nextBoolean()) {
+				writeLet();
+			}
+			else {
+				writeArray();
+			}
+		}
+		line("push local 0");
+		line("push constant 1");
+		line("add");
+		line("pop local 0");
+		line("goto " + loop);
+		line("label " + exit);
+	}
+
+	private void writeIf() {
+		String whenTrue = label("IF_TRUE");
+		String whenFalse = label("IF_FALSE");
+		writeTerm();
+		writeTerm();
+		line(COMPARISONS[random.nextInt(COMPARISONS.length)]);
+		line("if-goto " + whenTrue);
+		line("goto " + whenFalse);
+		line("label " + whenTrue);
+		writeLet();
+		line("label " + whenFalse);
+	}
+
+	private boolean hasCallee() {
+		return current / FUNCTIONS_PER_CLASS + 1 < classes;
+	}
+
+	/**
+	 * Calls a function of a later class, so the call graph has no cycles
+	 */
+	private void writeCall() {
+		int first = (current / FUNCTIONS_PER_CLASS + 1) * FUNCTIONS_PER_CLASS;
+		int callee = first + random.nextInt(Math.min(2 * FUNCTIONS_PER_CLASS, numArgs.length - first));
+		for(int i = 0; i < numArgs[callee]; i++) {
+			writeTerm();
+		}
+		line("call " + name(callee) + " " + numArgs[callee]);
+		line("pop temp 0");
+	}
+
+	/**
+	 * Reads or writes an element of a 16 word array through that
+	 */
+	private void writeArray() {
+		line("push constant " + (4000 + random.nextInt(64)));
+		writeTerm();
+		line("push constant 15");
+		line("and");
+		line("add");
+		line("pop pointer 1");
+		if(random.nextBoolean()) {
+			line("push that 0");
+			line("pop " + destination());
+		}
+		else {
+			writeExpression();
+			line("pop that 0");
+		}
+	}
+
+	private void writeExpression() {
+		writeTerm();
+		int operations = random.nextInt(3);
+		for(int i = 0; i < operations; i++) {
+			writeTerm();
+			line(OPERATIONS[random.nextInt(OPERATIONS.length)]);
+		}
+		if(random.nextInt(8) == 0) {
+			line(random.nextBoolean() ? "neg" : "not");
+		}
+	}
+
+	private void writeTerm() {
+		int kind = random.nextInt(7);
+		int locals = numLocals[current];
+		int args = numArgs[current];
+		if(kind == 1 && locals > 0) {
+			line("push local " + random.nextInt(locals));
+		}
+		else if(kind == 2 && args > 0) {
+			line("push argument " + random.nextInt(args));
+		}
+		else if(kind == 3) {
+			line("push static " + random.nextInt(8));
+		}
+		else if(kind == 4) {
+			line("push this " + random.nextInt(8));
+		}
+		else if(kind == 5) {
+			line("push temp " + (1 + random.nextInt(7)));
+		}
+		else {
+			line("push constant " + random.nextInt(100));
+		}
+	}
+
+	/**
+	 * @return segment and index to pop into, never local 0 which counts loops
+	 */
+	private String destination() {
+		int kind = random.nextInt(5);
+		int locals = numLocals[current];
+		if(kind == 0 && locals > 1) {
+			return "local " + (1 + random.nextInt(locals - 1));
+		}
+		else if(kind == 1) {
+			return "static " + random.nextInt(8);
+		}
+		else if(kind == 2) {
+			return "this " + random.nextInt(8);
+		}
+		else if(kind == 3) {
+			return "that " + random.nextInt(8);
+		}
+		return "temp " + (1 + random.nextInt(7));
+	}
+
+	/**
+	 * @return label unique to program, since labels are not scoped by function
+	 */
+	private String label(String kind) {
+		return function + "$" + kind + (labels++);
+	}
+
+	private static String name(int g) {
+		return "Class" + (g / FUNCTIONS_PER_CLASS) + ".f" + (g % FUNCTIONS_PER_CLASS);
+	}
+
+	private void line(String command) {
+		out.println(command);
+		written++;
+	}
+
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.out.println("Usage: java VMCorpusGenerator outputDir [commands] [seed]");
+			return;
+		}
+		try {
+			int commands = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+			long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+			int written = generate(new File(args[0]), commands, seed);
+			System.out.println(written + " commands written to " + args[0]);
+		} catch(Exception e) {
+			System.out.println("Error: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+}
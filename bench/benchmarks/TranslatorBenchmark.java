@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Brian Song
+ * @description Measures translator throughput on a corpus written by VMCorpusGenerator: lexing with Parser,
+ * emission with CodeWriter from already parsed commands, and end to end translation of the corpus directory
+ * Translator flags are passed through the flags parameter, so optimizations can be compared against each other
+ *
+ * Usage: gradle jmh --args="TranslatorBenchmark -p commands=500000 -p flags='--cache-tos --fuse-branches'"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TranslatorBenchmark {
+	@Param("500000")
+	public int commands;	// approximate number of commands of corpus
+
+	@Param("")
+	public String flags;	// translator flags separated by spaces
+
+	private Workload workload;
+
+	@Setup
+	public void setUp() throws Exception {
+		workload = (Workload) Class.forName("TranslatorWorkload").getDeclaredConstructor().newInstance();
+		workload.setUp(commands, flags);
+	}
+
+	@Benchmark
+	public long lex() throws Exception {
+		return workload.lex();
+	}
+
+	@Benchmark
+	public long emit() {
+		return workload.emit();
+	}
+
+	@Benchmark
+	public Object translate() throws Exception {
+		return workload.translate();
+	}
+}
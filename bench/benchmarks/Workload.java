@@ -0,0 +1,38 @@
+package benchmarks;
+
+/**
+ * @author Brian Song
+ * @description Measured operations of the translator on a generated corpus
+ * The translator lives in the default package, which classes of a package cannot name, and JMH does not
+ * accept benchmarks in the default package. TranslatorWorkload implements this interface from the default
+ * package, so the benchmarks reach the translator through one interface call per operation
+ */
+public interface Workload {
+	/**
+	 * Generates the corpus and parses it once for emit
+	 * @param commands approximate number of commands of corpus
+	 * @param flags    translator flags separated by spaces, empty for none
+	 * @throws Exception if corpus could not be written or parsed
+	 */
+	void setUp(int commands, String flags) throws Exception;
+
+	/**
+	 * Lexes and decodes every command of the corpus with Parser, without generating code
+	 * @return checksum of decoded commands
+	 * @throws Exception if corpus could not be read
+	 */
+	long lex() throws Exception;
+
+	/**
+	 * Generates code for the already parsed corpus with CodeWriter, so neither lexing nor disk is measured
+	 * @return number of characters generated
+	 */
+	long emit();
+
+	/**
+	 * Translates the corpus directory end to end, as VMTranslator does
+	 * @return output file
+	 * @throws Exception if corpus could not be translated
+	 */
+	Object translate() throws Exception;
+}
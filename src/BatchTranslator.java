@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Brian Song
+ * @description Translates many separate programs in one process, so the JVM starts and warms up only once
+ * Each program is translated by its own task with its own CodeWriter on a bounded worker pool,
+ * and a summary of the time and size of every program is printed when all of them are done
+ * What a task prints is collected and printed in input order, so messages of programs never interleave
+ */
+public class BatchTranslator {
+	/**
+	 * Outcome of translating one program
+	 */
+	private static class Result {
+		final File input;		// .vm file or directory of program
+		File output;			// file written, null if translation failed
+		String error;			// reason translation failed
+		String messages = "";	// console output of translation
+		long nanos;				// time taken to translate
+		int words;				// instructions in output
+
+		Result(File input) {
+			this.input = input;
+		}
+	}
+
+	/**
+	 * Reads the programs listed in a manifest, one .vm file or directory per line
+	 * Blank lines and lines starting with # are skipped, relative paths are relative to the manifest
+	 * @param manifest file listing programs
+	 * @return programs in manifest order
+	 * @throws IOException if manifest could not be read
+	 */
+	public static List<File> readManifest(File manifest) throws IOException {
+		ArrayList<File> programs = new ArrayList<File>();
+		File base = manifest.getAbsoluteFile().getParentFile();
+		BufferedReader in = new BufferedReader(new FileReader(manifest));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				File f = new File(line);
+				programs.add(f.isAbsolute() ? f : new File(base, line));
+			}
+		} finally {
+			in.close();
+		}
+		return programs;
+	}
+
+	/**
+	 * Translates every program on a pool of options.batchThreads workers and prints a summary
+	 * A program that fails is reported in the summary, the others are still translated
+	 * @param programs .vm files or directories, each translated into its own output file
+	 * @param options  options every program is translated with
+	 * @return true if every program was translated
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	public static boolean translate(List<File> programs, final Options options) throws InterruptedException {
+		if(programs.isEmpty()) {
+			System.out.println("No programs to translate.");
+			return false;
+		}
+		long start = System.nanoTime();
+		PrintStream console = System.out;
+		final Capture capture = new Capture(console);
+		System.setOut(new PrintStream(capture, true));
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.batchThreads, programs.size()));
+		ArrayList<Result> results = new ArrayList<Result>();
+		try {
+			ArrayList<Future<Result>> tasks = new ArrayList<Future<Result>>();
+			for(final File input : programs) {
+				tasks.add(pool.submit(() -> translate(input, options, capture)));
+			}
+			for(Future<Result> task : tasks) {
+				Result result;
+				try {
+					result = task.get();
+				} catch(ExecutionException e) {
+					// translate(File, Options) reports its own failures, only errors end up here
+					throw new IllegalStateException(e.getCause());
+				}
+				console.print(result.messages);
+				results.add(result);
+			}
+		} finally {
+			pool.shutdownNow();
+			System.setOut(console);
+		}
+		long nanos = System.nanoTime() - start;
+		return printSummary(results, nanos);
+	}
+
+	/**
+	 * Translates one program, any failure is kept in the result along with what translation printed
+	 */
+	private static Result translate(File input, Options options, Capture capture) {
+		Result result = new Result(input);
+		ByteArrayOutputStream messages = new ByteArrayOutputStream();
+		capture.target.set(new PrintStream(messages, true));
+		long start = System.nanoTime();
+		try {
+			result.output = VMTranslator.translate(input, options);
+			if(result.output == null) {
+				result.error = "no .vm files or an invalid instruction";
+			}
+		} catch(Exception e) {
+			result.error = e.getMessage();
+		} finally {
+			capture.target.remove();
+		}
+		result.nanos = System.nanoTime() - start;
+		result.messages = messages.toString();
+		if(result.output != null) {
+			try {
+				result.words = countInstructions(result.output);
+			} catch(IOException e) {
+				result.error = e.getMessage();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Console of the batch, sends what a task prints to the buffer of that task
+	 * Pools started by a task inherit its buffer, so their output is collected as well
+	 */
+	private static class Capture extends OutputStream {
+		final InheritableThreadLocal<PrintStream> target = new InheritableThreadLocal<PrintStream>();	// buffer of task
+		private final PrintStream console;	// output of threads that are not translating a program
+
+		Capture(PrintStream console) {
+			this.console = console;
+		}
+
+		private PrintStream out() {
+			PrintStream out = target.get();
+			return out != null ? out : console;
+		}
+
+		@Override
+		public void write(int b) {
+			out().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			out().write(b, off, len);
+		}
+
+		@Override
+		public void flush() {
+			out().flush();
+		}
+	}
+
+	/**
+	 * @param output .asm or .hack file
+	 * @return number of instructions in file
+	 * @throws IOException if file could not be read
+	 */
+	private static int countInstructions(File output) throws IOException {
+		int count = 0;
+		BufferedReader in = new BufferedReader(new FileReader(output));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				line = line.trim();
+				if(!line.isEmpty() && !line.startsWith("//") && !line.startsWith("(")) {
+					count++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Prints time and size of every program, in input order, followed by the totals
+	 * @return true if no program failed
+	 */
+	private static boolean printSummary(List<Result> results, long nanos) {
+		int failed = 0;
+		long words = 0;
+		long busy = 0;
+		System.out.printf("%10s %8s  %s%n", "ms", "words", "program");
+		for(Result r : results) {
+			busy += r.nanos;
+			if(r.error != null) {
+				failed++;
+				System.out.printf("%10.1f %8s  %s: FAILED, %s%n", r.nanos / 1e6, "-", r.input, r.error);
+				continue;
+			}
+			words += r.words;
+			System.out.printf("%10.1f %8d  %s%n", r.nanos / 1e6, r.words, r.output);
+		}
+		System.out.printf("Translated %d of %d programs, %d words, in %.1f ms (%.1f ms of work)%n",
+				results.size() - failed, results.size(), words, nanos / 1e6, busy / 1e6);
+		return failed == 0;
+	}
+}
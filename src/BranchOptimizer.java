@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * @author Brian Song
+ * @description Simplifies jumps of one function: threads jump chains, reverses conditionals that jump over a goto,
+ * decides branches on constants, and removes unreachable commands and labels nothing jumps to
+ * Labels are scoped to their function, as in the VM specification
+ */
+public class BranchOptimizer {
+	/**
+	 * Simplifies jumps in a block of commands until nothing changes
+	 *
+	 * @param cmds      Commands of one function, in program order
+	 * @param fusedNot  true if a comparison, not and if-goto are translated into one jump, so adding not is free
+	 * @return simplified commands
+	 */
+	public static List<Command> optimize(List<Command> cmds, boolean fusedNot) {
+		ArrayList<Command> out = new ArrayList<Command>(cmds);
+		boolean changed = true;
+		while(changed) {
+			changed = threadJumps(out);
+			changed |= reverseConditionals(out, fusedNot);
+			changed |= decideConstantBranches(out);
+			changed |= removeUnreachable(out);
+			changed |= removeJumpsToNext(out);
+			changed |= removeUnusedLabels(out);
+		}
+		return out;
+	}
+
+	/**
+	 * Retargets goto and if-goto to a label followed by goto B straight to B
+	 */
+	private static boolean threadJumps(ArrayList<Command> cmds) {
+		HashMap<String, Integer> labels = labelPositions(cmds);
+		boolean changed = false;
+		for(int i = 0; i < cmds.size(); i++) {
+			Command jump = cmds.get(i);
+			if(!isJump(jump)) {
+				continue;
+			}
+			Command target = jump;
+			HashSet<String> seen = new HashSet<String>();
+			while(seen.add(target.name())) {
+				Command next = firstAfterLabel(cmds, labels, target.name());
+				if(next == null || next.opcode() != Opcode.GOTO) {
+					break;
+				}
+				target = next;
+			}
+			if(target != jump && !target.name().equals(jump.name())) {
+				cmds.set(i, new Command(jump.opcode(), null, 0, target.symbol(), target.name()));
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * cmp, if-goto L1, goto L2, label L1 becomes cmp, not, if-goto L2, label L1
+	 * and cmp, not, if-goto L1, goto L2, label L1 becomes cmp, if-goto L2, label L1
+	 * Only done for a boolean condition, where not turns true into false and back
+	 * Adding not costs more than the goto it saves unless it is fused into the jump
+	 */
+	private static boolean reverseConditionals(ArrayList<Command> cmds, boolean fusedNot) {
+		boolean changed = false;
+		for(int i = 1; i + 2 < cmds.size(); i++) {
+			Command branch = cmds.get(i);
+			Command jump = cmds.get(i + 1);
+			Command label = cmds.get(i + 2);
+			if(branch.opcode() != Opcode.IF_GOTO || jump.opcode() != Opcode.GOTO
+					|| label.opcode() != Opcode.LABEL || !label.name().equals(branch.name())) {
+				continue;
+			}
+			Command condition = cmds.get(i - 1);
+			Command reversed = new Command(Opcode.IF_GOTO, null, 0, jump.symbol(), jump.name());
+			if(condition.opcode() == Opcode.NOT && i >= 2 && cmds.get(i - 2).opcode().isComparison()) {
+				cmds.remove(i + 1);
+				cmds.set(i, reversed);
+				cmds.remove(i - 1);
+				changed = true;
+			}
+			else if(condition.opcode().isComparison() && fusedNot) {
+				cmds.set(i + 1, reversed);
+				cmds.set(i, Command.of(Opcode.NOT));
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * push constant c, if-goto L becomes goto L if c is not 0, and is removed otherwise
+	 */
+	private static boolean decideConstantBranches(ArrayList<Command> cmds) {
+		boolean changed = false;
+		for(int i = 0; i + 1 < cmds.size(); i++) {
+			Command branch = cmds.get(i + 1);
+			if(branch.opcode() != Opcode.IF_GOTO || !ConstantFolder.isConstant(cmds.get(i))) {
+				continue;
+			}
+			if(cmds.get(i).index() != 0) {
+				cmds.set(i, new Command(Opcode.GOTO, null, 0, branch.symbol(), branch.name()));
+				cmds.remove(i + 1);
+			}
+			else {
+				cmds.remove(i + 1);
+				cmds.remove(i);
+			}
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes commands after goto or return up to the next label, no jump can reach them
+	 */
+	private static boolean removeUnreachable(ArrayList<Command> cmds) {
+		boolean changed = false;
+		for(int i = 0; i + 1 < cmds.size(); i++) {
+			Opcode op = cmds.get(i).opcode();
+			if(op != Opcode.GOTO && op != Opcode.RETURN) {
+				continue;
+			}
+			while(i + 1 < cmds.size() && cmds.get(i + 1).opcode() != Opcode.LABEL
+					&& cmds.get(i + 1).opcode() != Opcode.FUNCTION) {
+				cmds.remove(i + 1);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes goto L where label L follows, possibly after other labels
+	 */
+	private static boolean removeJumpsToNext(ArrayList<Command> cmds) {
+		boolean changed = false;
+		for(int i = 0; i < cmds.size(); i++) {
+			Command jump = cmds.get(i);
+			if(jump.opcode() != Opcode.GOTO) {
+				continue;
+			}
+			for(int k = i + 1; k < cmds.size() && cmds.get(k).opcode() == Opcode.LABEL; k++) {
+				if(cmds.get(k).name().equals(jump.name())) {
+					cmds.remove(i);
+					i--;
+					changed = true;
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes labels no goto or if-goto of the function refers to
+	 */
+	private static boolean removeUnusedLabels(ArrayList<Command> cmds) {
+		HashSet<String> used = new HashSet<String>();
+		for(Command cmd : cmds) {
+			if(isJump(cmd)) {
+				used.add(cmd.name());
+			}
+		}
+		boolean changed = false;
+		for(int i = cmds.size() - 1; i >= 0; i--) {
+			Command cmd = cmds.get(i);
+			if(cmd.opcode() == Opcode.LABEL && !used.contains(cmd.name())) {
+				cmds.remove(i);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static boolean isJump(Command cmd) {
+		return cmd.opcode() == Opcode.GOTO || cmd.opcode() == Opcode.IF_GOTO;
+	}
+
+	private static HashMap<String, Integer> labelPositions(List<Command> cmds) {
+		HashMap<String, Integer> labels = new HashMap<String, Integer>();
+		for(int i = 0; i < cmds.size(); i++) {
+			if(cmds.get(i).opcode() == Opcode.LABEL) {
+				labels.put(cmds.get(i).name(), i);
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * @return first command after a label and the labels directly following it, null if label is not in block
+	 */
+	private static Command firstAfterLabel(List<Command> cmds, HashMap<String, Integer> labels, String label) {
+		Integer position = labels.get(label);
+		if(position == null) {
+			return null;
+		}
+		int i = position + 1;
+		while(i < cmds.size() && cmds.get(i).opcode() == Opcode.LABEL) {
+			i++;
+		}
+		return i < cmds.size() ? cmds.get(i) : null;
+	}
+}
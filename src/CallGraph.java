@@ -0,0 +1,102 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Brian Song
+ * @description Call graph of a program built from its function and call commands
+ * Calls made ahead of the first function of a file have no caller and are treated as roots
+ */
+public class CallGraph {
+	public static final String ENTRY = "Sys.init";	//function the bootstrap code calls
+
+	private final LinkedHashMap<String, ArrayList<String>> callees = new LinkedHashMap<String, ArrayList<String>>();	//functions called by each function, in program order
+	private final ArrayList<String> roots = new ArrayList<String>();	//functions called outside any function
+
+	/**
+	 * Builds call graph of every function defined in a program
+	 * @param program parsed program
+	 */
+	public CallGraph(Program program) {
+		for(int i = 0; i < program.size(); i++) {
+			ArrayList<String> calls = roots;
+			for(Command cmd : program.commands(i)) {
+				if(cmd.opcode() == Opcode.FUNCTION) {
+					calls = new ArrayList<String>();
+					callees.put(cmd.name(), calls);
+				}
+				else if(cmd.opcode() == Opcode.CALL) {
+					calls.add(cmd.name());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return names of every function defined in program, in program order
+	 */
+	public Set<String> functions() {
+		return callees.keySet();
+	}
+
+	/**
+	 * @param function name of function
+	 * @return functions called by function, empty if function is not defined
+	 */
+	public List<String> callees(String function) {
+		List<String> calls = callees.get(function);
+		return calls == null ? new ArrayList<String>() : calls;
+	}
+
+	/**
+	 * Finds every function that can be called, directly or through other functions, starting from a root
+	 * Functions called outside any function are reachable as well
+	 * @param root function execution starts with
+	 * @return names of reachable functions, including root
+	 */
+	public Set<String> reachableFrom(String root) {
+		LinkedHashSet<String> reached = new LinkedHashSet<String>();
+		ArrayDeque<String> work = new ArrayDeque<String>();
+		work.add(root);
+		work.addAll(roots);
+		while(!work.isEmpty()) {
+			String function = work.poll();
+			if(reached.add(function)) {
+				work.addAll(callees(function));
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Removes every function that cannot be reached from Sys.init and prints which functions were dropped
+	 * Programs without Sys.init are left as they are, since their entry point is unknown
+	 * @param program parsed program to remove functions from
+	 * @return names of dropped functions
+	 */
+	public static List<String> removeUnreachable(Program program) {
+		CallGraph graph = new CallGraph(program);
+		ArrayList<String> dropped = new ArrayList<String>();
+		if(!graph.functions().contains(ENTRY)) {
+			System.out.println(ENTRY + " not found, no functions dropped.");
+			return dropped;
+		}
+		Set<String> reachable = graph.reachableFrom(ENTRY);
+		for(String function : graph.functions()) {
+			if(!reachable.contains(function)) {
+				dropped.add(function);
+			}
+		}
+		int removed = program.retainFunctions(reachable);
+		System.out.println("Dropped " + dropped.size() + " of " + graph.functions().size()
+				+ " functions (" + removed + " commands) not reachable from " + ENTRY + ":");
+		for(String function : dropped) {
+			System.out.println("  " + function);
+		}
+		return dropped;
+	}
+}
@@ -0,0 +1,195 @@
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Brian Song
+ * @description Parses a large .vm file on several threads
+ * The file is memory-mapped in chunks that end at a newline, and each chunk is lexed by its own Parser
+ * into its own command list and symbol table. Chunks are joined in file order, interning the names of
+ * each chunk into the shared table in the order the chunk met them, so names get the same ids as when the
+ * file is parsed sequentially. Errors are reported for the first failing command in the file, as Parser does
+ */
+public class ChunkedParser {
+	private static final int MIN_CHUNK = 1 << 20;		// smallest chunk in bytes worth a thread of its own
+	private static final int MAX_CHUNK = 1 << 30;		// largest chunk in bytes, a mapping holds at most 2 GB
+	private static final int BOUNDARY_SCAN = 1 << 12;	// bytes read at a time while looking for a newline
+
+	/**
+	 * Commands of one chunk, and the reason lexing it stopped early
+	 */
+	private static class Chunk {
+		final SymbolTable symbols = new SymbolTable();	// names met in chunk, in order
+		final ArrayList<Command> cmds = new ArrayList<Command>();	// valid commands before any error
+		boolean invalid;						// true if cmds is followed by an invalid instruction
+		NumberFormatException badArgument;		// thrown for an invalid argument following cmds, null if none
+	}
+
+	/**
+	 * Parses every command of a .vm file, with the same result as Program.parseFile
+	 * Files too small to split are parsed sequentially
+	 * @param f       .vm file to parse
+	 * @param symbols table to intern label and function names in
+	 * @param threads largest number of chunks lexed at the same time
+	 * @return commands of file, null if file contains an invalid instruction
+	 * @throws Exception if file could not be read or holds no instructions
+	 */
+	public static List<Command> parse(File f, SymbolTable symbols, int threads) throws Exception {
+		long size = f.length();
+		int chunks = (int) Math.max(Math.min(threads, size / MIN_CHUNK), size / MAX_CHUNK + 1);
+		if(chunks < 2) {
+			return Program.parseFile(f, symbols);
+		}
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks));
+		ArrayList<Future<Chunk>> lexed = new ArrayList<Future<Chunk>>();
+		try {
+			long start = 0;
+			for(int i = 1; i <= chunks && start < size; i++) {
+				long end = i == chunks ? size : nextLine(channel, size * i / chunks, size);
+				if(end <= start) {
+					continue;
+				}
+				final ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				lexed.add(pool.submit(() -> lex(bytes)));
+				start = end;
+			}
+			return join(f, lexed, symbols);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally {
+			pool.shutdownNow();
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param channel file
+	 * @param from    position to search from
+	 * @param size    size of file
+	 * @return position after the first newline at or after from, size if there is none
+	 */
+	private static long nextLine(FileChannel channel, long from, long size) throws Exception {
+		ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN);
+		long position = from;
+		while(position < size) {
+			scan.clear();
+			int read = channel.read(scan, position);
+			if(read <= 0) {
+				break;
+			}
+			for(int i = 0; i < read; i++) {
+				if(scan.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Lexes one chunk until its end or its first invalid command
+	 */
+	private static Chunk lex(ByteBuffer bytes) {
+		Chunk chunk = new Chunk();
+		Parser p = new Parser(new InputStreamReader(new BufferInput(bytes), StandardCharsets.UTF_8), chunk.symbols);
+		if(p.isEmpty()) {
+			return chunk;
+		}
+		while(true) {
+			Command cmd;
+			try {
+				cmd = p.command();
+			} catch(NumberFormatException e) {
+				chunk.badArgument = e;
+				break;
+			}
+			if(cmd == null) {
+				chunk.invalid = true;
+				break;
+			}
+			chunk.cmds.add(cmd);
+			if(p.hasMoreCommands()) {
+				p.advance();
+			} else break;
+		}
+		p.close();
+		return chunk;
+	}
+
+	/**
+	 * Joins chunks in file order, giving their names ids in the shared table
+	 */
+	private static List<Command> join(File f, List<Future<Chunk>> lexed, SymbolTable symbols) throws Exception {
+		ArrayList<Command> cmds = new ArrayList<Command>();
+		for(Future<Chunk> future : lexed) {
+			Chunk chunk = future.get();
+			int[] ids = new int[chunk.symbols.size()];
+			for(int i = 0; i < ids.length; i++) {
+				ids[i] = symbols.intern(chunk.symbols.name(i));
+			}
+			cmds.ensureCapacity(cmds.size() + chunk.cmds.size());
+			for(Command cmd : chunk.cmds) {
+				if(cmd.symbol() >= 0) {
+					int id = ids[cmd.symbol()];
+					cmd = new Command(cmd.opcode(), null, cmd.index(), id, symbols.name(id));
+				}
+				cmds.add(cmd);
+			}
+			if(chunk.badArgument != null) {
+				throw chunk.badArgument;
+			}
+			if(chunk.invalid) {
+				System.out.println(f + " contains an invalid instruction.");
+				return null;
+			}
+		}
+		if(cmds.isEmpty()) {
+			throw new Exception("No valid instructions.");
+		}
+		return cmds;
+	}
+
+	/**
+	 * Reads a mapped chunk as a stream without copying it first
+	 */
+	private static class BufferInput extends InputStream {
+		private final ByteBuffer bytes;
+
+		BufferInput(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() {
+			return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len == 0) {
+				return 0;
+			}
+			if(!bytes.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, bytes.remaining());
+			bytes.get(b, off, len);
+			return len;
+		}
+	}
+}
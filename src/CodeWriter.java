@@ -1,16 +1,31 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Brian Song
  * @description Generates sequence of Hack assembly instructions based on parsed VM instructions
  */
 public class CodeWriter {
+	private static final String CALL_ROUTINE = "VM$call"; // label of shared call routine
+	private static final String RETURN_ROUTINE = "VM$return"; // label of shared return routine
+	private static final int MAX_DIRECT_OFFSET = 7; // largest segment index reached with A=A+1 steps
+
 	private String filename; // Name of file to write instruction in
+	private String staticPrefix; // Symbol prefix of static variables in file
 	private PrintWriter writer; // writer to write assembly instructions in file
 	private int currLine; // current line in file
-	private int labelNum; // location label point to
+	private int labelNum; // location label point to, counted per file
+	private String labelPrefix = ""; // prefix making generated labels unique to file
+	private Options options = new Options(); // code generation options
+	private boolean cached; // true if top of stack is held in D instead of RAM
+	private Map<String, Inliner.Candidate> inlined = Collections.emptyMap(); // functions whose calls are replaced by their body
 
 	public CodeWriter(File output) throws FileNotFoundException {
 		try {
@@ -23,13 +38,521 @@ public class CodeWriter {
 		}
 	}
 
+	/**
+	 * Creates writer generating assembly into any character stream, such as an in-memory buffer
+	 * 
+	 * @param output Writer to write assembly instructions in
+	 */
+	public CodeWriter(Writer output) {
+		writer = new PrintWriter(output);
+		currLine = 0;
+		labelNum = 0;
+	}
+
 	/**
 	 * Changes filename to filename specified
 	 * 
 	 * @param filename String to change filename
 	 */
 	public void setFileName(String filename) {
+		spill();
 		this.filename = filename;
+		this.staticPrefix = filename.split("\\.")[0];
+		// generated labels are numbered per file, so each file translates the same on its own
+		this.labelPrefix = staticPrefix + ".";
+		this.labelNum = 0;
+	}
+
+	/**
+	 * Sets code generation options
+	 * 
+	 * @param options Options selecting output mode
+	 */
+	public void setOptions(Options options) {
+		this.options = options;
+	}
+
+	/**
+	 * Sets functions whose calls are replaced by their body
+	 * 
+	 * @param inlined Inline candidates by function name
+	 */
+	public void setInlined(Map<String, Inliner.Candidate> inlined) {
+		this.inlined = inlined;
+	}
+
+	/**
+	 * Writes already translated assembly code as is
+	 * 
+	 * @param asm Assembly code produced by another CodeWriter
+	 */
+	public void writeFragment(String asm) {
+		spill();
+		writer.print(asm);
+	}
+
+	/**
+	 * Writes assembly code of a block of decoded VM commands, such as one function
+	 * Sequences of commands are translated together where the options allow it
+	 * 
+	 * @param cmds Commands to translate, in program order
+	 */
+	public void writeCommands(List<Command> cmds) {
+		int i = 0;
+		while(i < cmds.size()) {
+			int used = writeFused(cmds, i);
+			if(used == 0) {
+				writeCommand(cmds.get(i));
+				used = 1;
+			}
+			i += used;
+		}
+		spill();
+	}
+
+	/**
+	 * Writes assembly code of a sequence of commands starting at i, if it can be translated as a whole
+	 * 
+	 * @param cmds Commands being translated
+	 * @param i    index of first command of sequence
+	 * @return number of commands translated, 0 if none
+	 */
+	private int writeFused(List<Command> cmds, int i) {
+		Command cmd = cmds.get(i);
+		if(options.superinstructions) {
+			int used = writeSuperinstruction(cmds, i);
+			if(used > 0) {
+				return used;
+			}
+		}
+		if(options.tailCalls && cmd.opcode() == Opcode.CALL && i + 1 < cmds.size()
+				&& cmds.get(i + 1).opcode() == Opcode.RETURN && !inlined.containsKey(cmd.name())) {
+			writeTailCall(cmd.name(), cmd.index());
+			return 2;
+		}
+		if(options.directMoves && cmd.opcode() == Opcode.PUSH) {
+			int used = writeMove(cmds, i);
+			if(used > 0) {
+				return used;
+			}
+		}
+		if(options.foldConstants && ConstantFolder.isConstant(cmd) && i + 1 < cmds.size()) {
+			// operation with a constant topmost operand updates the stack top in place
+			Opcode op = cmds.get(i + 1).opcode();
+			int branch = options.fuseBranches ? findBranch(cmds, i + 1) : -1;
+			if(branch > 0) {
+				writeCompareBranch(cmds.get(i + 1).opcode(), branch > i + 2, cmds.get(branch).name(), cmd.index());
+				return branch - i + 1;
+			}
+			if(op == Opcode.ADD || op == Opcode.SUB || op == Opcode.AND || op == Opcode.OR) {
+				writeConstantOperation(op, cmd.index());
+				return 2;
+			}
+		}
+		int branch = options.fuseBranches ? findBranch(cmds, i) : -1;
+		if(branch > 0) {
+			writeCompareBranch(cmd.opcode(), branch > i + 1, cmds.get(branch).name(), null);
+			return branch - i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes hand tuned code for frequent command sequences of Jack compiled code
+	 * push x, push constant c, add/sub, pop x updates x in place
+	 * pop pointer p, push this/that k sets the pointer and loads through the popped value still in D
+	 * push x, pop pointer p copies x into THIS/THAT without touching SP
+	 * 
+	 * @param cmds Commands being translated
+	 * @param i    index of first command of sequence
+	 * @return number of commands translated, 0 if no sequence starts at i
+	 */
+	private int writeSuperinstruction(List<Command> cmds, int i) {
+		Command cmd = cmds.get(i);
+		int n = cmds.size();
+		if(cmd.opcode() == Opcode.PUSH && i + 3 < n && ConstantFolder.isConstant(cmds.get(i + 1))
+				&& (cmds.get(i + 2).opcode() == Opcode.ADD || cmds.get(i + 2).opcode() == Opcode.SUB)) {
+			Command dest = cmds.get(i + 3);
+			int constant = cmds.get(i + 1).index();
+			if(dest.opcode() == Opcode.POP && dest.segment() == cmd.segment() && dest.index() == cmd.index()
+					&& isAddressable(cmd.segment(), cmd.index()) && constant >= 0) {
+				Opcode op = cmds.get(i + 2).opcode();
+				spill();
+				writer.println("// " + cmd + " / " + cmds.get(i + 1) + " / " + op.keyword() + " / " + dest);
+				if(constant == 1) {
+					addressToA(cmd.segment(), cmd.index());
+					writeLine(op == Opcode.ADD ? "M=M+1" : "M=M-1");
+				}
+				else if(constant > 0) {
+					writeLine("@" + constant);
+					writeLine("D=A");
+					addressToA(cmd.segment(), cmd.index());
+					writeLine(op == Opcode.ADD ? "M=D+M" : "M=M-D");
+				}
+				return 4;
+			}
+		}
+		if(isPop(cmd) && cmd.segment() == Segment.POINTER && i + 1 < n) {
+			Command load = cmds.get(i + 1);
+			Segment segment = cmd.index() == 0 ? Segment.THIS : Segment.THAT;
+			if(load.opcode() == Opcode.PUSH && load.segment() == segment && load.index() <= MAX_DIRECT_OFFSET) {
+				writer.println("// " + cmd + " / " + load);
+				boolean inPlace = !cached && !options.cacheTos;
+				if(cached) {
+					cached = false;
+				}
+				else {
+					writeLine("@SP");
+					writeLine(inPlace ? "A=M-1" : "AM=M-1");
+					writeLine("D=M");
+				}
+				writeLine("@" + segment.base());
+				writeLine("M=D");
+				writeLine("A=D");
+				for(int k = 0; k < load.index(); k++) {
+					writeLine("A=A+1");
+				}
+				writeLine("D=M");
+				if(inPlace) {
+					// value replaces the popped address on the stack
+					writeLine("@SP");
+					writeLine("A=M-1");
+					writeLine("M=D");
+				}
+				else {
+					pushDToStack();
+				}
+				return 2;
+			}
+		}
+		if(cmd.opcode() == Opcode.PUSH && i + 1 < n && isAddressable(cmd.segment(), cmd.index())) {
+			Command dest = cmds.get(i + 1);
+			if(isPop(dest) && dest.segment() == Segment.POINTER) {
+				spill();
+				writer.println("// " + cmd + " / " + dest);
+				addressToA(cmd.segment(), cmd.index());
+				writeLine("D=M");
+				addressToA(dest.segment(), dest.index());
+				writeLine("M=D");
+				return 2;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Translates push/pop pairs and short push, push, op, pop chains into loads and stores that never touch SP
+	 * 
+	 * @param cmds Commands being translated
+	 * @param i    index of push starting the sequence
+	 * @return number of commands translated, 0 if sequence does not match
+	 */
+	private int writeMove(List<Command> cmds, int i) {
+		Command src = cmds.get(i);
+		int n = cmds.size();
+		// push x, push y, add/sub/and/or, pop z
+		if(i + 3 < n && cmds.get(i + 1).opcode() == Opcode.PUSH && isPop(cmds.get(i + 3))) {
+			Opcode op = cmds.get(i + 2).opcode();
+			boolean constant = src.segment() == Segment.CONSTANT && src.index() >= 0;
+			if((op == Opcode.ADD || op == Opcode.SUB || op == Opcode.AND || op == Opcode.OR)
+					&& (constant || isAddressable(src.segment(), src.index()))) {
+				Command y = cmds.get(i + 1);
+				Command dest = cmds.get(i + 3);
+				spill();
+				writer.println("// " + src + " / " + y + " / " + op.keyword() + " / " + dest);
+				boolean prepared = prepareStore(dest.segment(), dest.index());
+				loadToD(y.segment(), y.index());
+				// x is used as A or M, so D keeps y
+				String x;
+				if(constant) {
+					writeLine("@" + src.index());
+					x = "A";
+				}
+				else {
+					addressToA(src.segment(), src.index());
+					x = "M";
+				}
+				switch(op) {
+					case ADD:
+						writeLine("D=D+" + x);
+						break;
+					case SUB:
+						writeLine("D=" + x + "-D");
+						break;
+					case AND:
+						writeLine("D=D&" + x);
+						break;
+					default:
+						writeLine("D=D|" + x);
+				}
+				storeD(dest.segment(), dest.index(), prepared);
+				return 4;
+			}
+		}
+		// push x, neg/not, pop z
+		if(i + 2 < n && isPop(cmds.get(i + 2))
+				&& (cmds.get(i + 1).opcode() == Opcode.NEG || cmds.get(i + 1).opcode() == Opcode.NOT)) {
+			Opcode op = cmds.get(i + 1).opcode();
+			Command dest = cmds.get(i + 2);
+			spill();
+			writer.println("// " + src + " / " + op.keyword() + " / " + dest);
+			boolean prepared = prepareStore(dest.segment(), dest.index());
+			loadToD(src.segment(), src.index());
+			writeLine(op == Opcode.NEG ? "D=-D" : "D=!D");
+			storeD(dest.segment(), dest.index(), prepared);
+			return 3;
+		}
+		// push x, pop z
+		if(i + 1 < n && isPop(cmds.get(i + 1))) {
+			Command dest = cmds.get(i + 1);
+			spill();
+			writer.println("// " + src + " / " + dest);
+			boolean prepared = prepareStore(dest.segment(), dest.index());
+			loadToD(src.segment(), src.index());
+			storeD(dest.segment(), dest.index(), prepared);
+			return 2;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param cmd Command to check
+	 * @return true if command pops into a memory segment
+	 */
+	private static boolean isPop(Command cmd) {
+		return cmd.opcode() == Opcode.POP && cmd.segment() != Segment.CONSTANT;
+	}
+
+	/**
+	 * @param segment Memory segment
+	 * @param index   index within segment
+	 * @return true if the address of the entry can be loaded into A without using D
+	 */
+	private static boolean isAddressable(Segment segment, int index) {
+		return segment != Segment.CONSTANT && (!segment.isIndirect() || index <= MAX_DIRECT_OFFSET);
+	}
+
+	/**
+	 * Loads the address of a segment entry into A without using D
+	 * Should only be called if isAddressable is true
+	 * 
+	 * @param segment Memory segment
+	 * @param index   index within segment
+	 */
+	private void addressToA(Segment segment, int index) {
+		if(segment == Segment.STATIC) {
+			writeLine("@" + staticPrefix + String.valueOf(index));
+		}
+		else if(!segment.isIndirect()) {
+			writeLine("@R" + String.valueOf(segment.address(index)));
+		}
+		else {
+			writeLine("@" + segment.base());
+			writeLine("A=M");
+			for(int k = 0; k < index; k++) {
+				writeLine("A=A+1");
+			}
+		}
+	}
+
+	/**
+	 * Loads the value of a segment entry into D
+	 * 
+	 * @param segment Memory segment
+	 * @param index   index within segment
+	 */
+	private void loadToD(Segment segment, int index) {
+		if(segment == Segment.CONSTANT) {
+			loadConstantToD(index);
+		}
+		else if(segment.isIndirect() && index > 1) {
+			loadSegment(segment.base(), index);
+			writeLine("D=M");
+		}
+		else {
+			addressToA(segment, index);
+			writeLine("D=M");
+		}
+	}
+
+	/**
+	 * Computes the address of a segment entry into R13 if it cannot be reached later without using D
+	 * 
+	 * @param segment Memory segment to store in
+	 * @param index   index within segment
+	 * @return true if address was computed into R13
+	 */
+	private boolean prepareStore(Segment segment, int index) {
+		if(isAddressable(segment, index)) {
+			return false;
+		}
+		writeLine("@" + segment.base());
+		writeLine("D=M");
+		writeLine("@" + index);
+		writeLine("D=D+A");
+		writeLine("@R13");
+		writeLine("M=D");
+		return true;
+	}
+
+	/**
+	 * Stores D in a segment entry
+	 * 
+	 * @param segment  Memory segment to store in
+	 * @param index    index within segment
+	 * @param prepared true if prepareStore computed the address into R13
+	 */
+	private void storeD(Segment segment, int index, boolean prepared) {
+		if(prepared) {
+			writeLine("@R13");
+			writeLine("A=M");
+		}
+		else {
+			addressToA(segment, index);
+		}
+		writeLine("M=D");
+	}
+
+	/**
+	 * Finds the if-goto consuming the result of a comparison, optionally negated by not
+	 * 
+	 * @param cmds Commands being translated
+	 * @param i    index of comparison
+	 * @return index of if-goto, -1 if command at i is not a comparison followed by if-goto
+	 */
+	private static int findBranch(List<Command> cmds, int i) {
+		if(!cmds.get(i).opcode().isComparison()) {
+			return -1;
+		}
+		int branch = i + 1;
+		if(branch < cmds.size() && cmds.get(branch).opcode() == Opcode.NOT) {
+			branch++;
+		}
+		if(branch < cmds.size() && cmds.get(branch).opcode() == Opcode.IF_GOTO) {
+			return branch;
+		}
+		return -1;
+	}
+
+	/**
+	 * Applies add, sub, and or or with a constant operand to the stack top in place
+	 * 
+	 * @param op       ADD, SUB, AND or OR
+	 * @param constant topmost operand
+	 */
+	private void writeConstantOperation(Opcode op, int constant) {
+		writer.println("// push constant " + constant + " / " + op.keyword());
+		if(cached && constant >= 0) {
+			// stack top is in D, apply constant to it there
+			writeConstantOperationToD(op, constant);
+			return;
+		}
+		spill();
+		if((op == Opcode.ADD || op == Opcode.SUB) && (constant == 1 || constant == -1)) {
+			boolean increment = (op == Opcode.ADD) == (constant == 1);
+			writeLine("@SP");
+			writeLine("A=M-1");
+			writeLine(increment ? "M=M+1" : "M=M-1");
+			return;
+		}
+		loadConstantToD(constant);
+		writeLine("@SP");
+		writeLine("A=M-1");
+		switch(op) {
+			case ADD:
+				writeLine("M=D+M");
+				break;
+			case SUB:
+				writeLine("M=M-D");
+				break;
+			case AND:
+				writeLine("M=D&M");
+				break;
+			default:
+				writeLine("M=D|M");
+		}
+	}
+
+	/**
+	 * Applies add, sub, and or or with a constant operand to the cached stack top in D
+	 * 
+	 * @param op       ADD, SUB, AND or OR
+	 * @param constant topmost operand between 0 and 32767
+	 */
+	private void writeConstantOperationToD(Opcode op, int constant) {
+		if(constant == 1 && (op == Opcode.ADD || op == Opcode.SUB)) {
+			writeLine(op == Opcode.ADD ? "D=D+1" : "D=D-1");
+			return;
+		}
+		writeLine("@" + constant);
+		switch(op) {
+			case ADD:
+				writeLine("D=D+A");
+				break;
+			case SUB:
+				writeLine("D=D-A");
+				break;
+			case AND:
+				writeLine("D=D&A");
+				break;
+			default:
+				writeLine("D=D|A");
+		}
+	}
+
+	/**
+	 * Loads a signed 16-bit constant into D
+	 * 
+	 * @param value constant between -32768 and 32767
+	 */
+	private void loadConstantToD(int value) {
+		if(value >= 0) {
+			writeLine("@" + value);
+			writeLine("D=A");
+		}
+		else if(value > -32768) {
+			writeLine("@" + (-value));
+			writeLine("D=-A");
+		}
+		else {
+			writeLine("@32767");
+			writeLine("D=-A");
+			writeLine("D=D-1");
+		}
+	}
+
+	/**
+	 * Writes assembly code of a decoded VM command
+	 * 
+	 * @param cmd Command to translate
+	 */
+	public void writeCommand(Command cmd) {
+		switch(cmd.opcode()) {
+			case PUSH:
+			case POP:
+				writePushPop(cmd.opcode(), cmd.segment(), cmd.index());
+				break;
+			case LABEL:
+				writeLabel(cmd.name());
+				break;
+			case GOTO:
+				writeGoto(cmd.name());
+				break;
+			case IF_GOTO:
+				writeIf(cmd.name());
+				break;
+			case FUNCTION:
+				writeFunction(cmd.name(), cmd.index());
+				break;
+			case CALL:
+				writeCall(cmd.name(), cmd.index());
+				break;
+			case RETURN:
+				writeReturn();
+				break;
+			default:
+				writeArithmetic(cmd.opcode());
+		}
 	}
 
 	/**
@@ -62,6 +585,7 @@ public class CodeWriter {
 	 * @param label String value of label
 	 */
 	public void writeLabel(String label) {
+		spill();
 		writer.println("// C_LABEL " + label);
 		writer.println("(" + label + ")");
 	}
@@ -72,6 +596,7 @@ public class CodeWriter {
 	 * @param label String value of jump/goto label
 	 */
 	public void writeGoto(String label) {
+		spill();
 		writer.println("// C_GOTO " + label);
 		writeLine("@" + label);
 		writeLine("0;JMP");
@@ -84,9 +609,15 @@ public class CodeWriter {
 	 */
 	public void writeIf(String label) {
 		writer.println("// C_IF " + label);
-		writeLine("@SP");
-		writeLine("AM=M-1");
-		writeLine("D=M");
+		if(cached) {
+			// condition is already in D
+			cached = false;
+		}
+		else {
+			writeLine("@SP");
+			writeLine("AM=M-1");
+			writeLine("D=M");
+		}
 		writeLine("@" + label);
 		writeLine("D;JNE");
 	}
@@ -98,11 +629,22 @@ public class CodeWriter {
 	 * @param numArgs      Number of arguments in call function
 	 */
 	public void writeCall(String functionName, int numArgs) {
+		spill();
+		Inliner.Candidate inline = inlined.get(functionName);
+		if(inline != null) {
+			writeInlined(inline, numArgs);
+			return;
+		}
 		writer.println("// call " + functionName + " " + numArgs);
 
+		if(options.sharedCalls) {
+			writeSharedCall(functionName, numArgs);
+			return;
+		}
+
 		// save calling function
 		writer.println("// save calling function");
-		writeLine("@return-address" + labelNum);
+		writeLine("@" + labelPrefix + "return-address" + labelNum);
 		writeLine("D=A");
 		finishPush();
 
@@ -142,13 +684,343 @@ public class CodeWriter {
 
 		// transfer control
 		writer.println("// transfer control");
-		writeGoto(functionName);
+		writeLine("@" + functionName);
+		writeLine("0;JMP");
 
 		// declare return address label
 		writer.println("// declare return address label");
-		writeLabel("return-address" + labelNum);
+		writer.println("(" + labelPrefix + "return-address" + labelNum + ")");
+
+		labelNum++;
+	}
 
+	/**
+	 * Writes a call site jumping to the shared call routine
+	 * R13 = callee address, R14 = return address, D = number of arguments
+	 * 
+	 * @param functionName Name of call function
+	 * @param numArgs      Number of arguments in call function
+	 */
+	private void writeSharedCall(String functionName, int numArgs) {
+		String returnAddress = labelPrefix + "return-address" + labelNum;
+		writeLine("@" + returnAddress);
+		writeLine("D=A");
+		writeLine("@R14");
+		writeLine("M=D");
+		writeLine("@" + functionName);
+		writeLine("D=A");
+		writeLine("@R13");
+		writeLine("M=D");
+		if(numArgs <= 1) {
+			writeLine("D=" + numArgs);
+		}
+		else {
+			writeLine("@" + numArgs);
+			writeLine("D=A");
+		}
+		writeLine("@" + CALL_ROUTINE);
+		writeLine("0;JMP");
+		writer.println("(" + returnAddress + ")");
+
+		labelNum++;
+	}
+
+	/**
+	 * Writes a call directly followed by return, reusing the frame of the current function
+	 * The new arguments are copied over the current ones and the callee is entered with LCL unchanged,
+	 * so it returns straight to the caller of the current function through the saved frame
+	 * Needs at least as many current arguments as new ones, otherwise a normal call and return are made
+	 * 
+	 * @param functionName Name of call function
+	 * @param numArgs      Number of arguments in call function
+	 */
+	private void writeTailCall(String functionName, int numArgs) {
+		spill();
+		writer.println("// call " + functionName + " " + numArgs + " / return");
+		String fallback = labelPrefix + "TAILCALL" + labelNum;
 		labelNum++;
+		if(numArgs > 0) {
+			// current number of arguments is LCL - ARG - 5
+			writeLine("@LCL");
+			writeLine("D=M");
+			writeLine("@ARG");
+			writeLine("D=D-M");
+			writeLine("@" + (numArgs + 5));
+			writeLine("D=D-A");
+			writeLine("@" + fallback);
+			writeLine("D;JLT");
+		}
+
+		// copy arguments from the stack top to ARG, upwards, the saved frame lies between them
+		for(int k = 0; k < numArgs; k++) {
+			boolean direct = k <= MAX_DIRECT_OFFSET;
+			if(!direct) {
+				writeLine("@ARG");
+				writeLine("D=M");
+				writeLine("@" + k);
+				writeLine("D=D+A");
+				writeLine("@R13");
+				writeLine("M=D");
+			}
+			writeLine("@SP");
+			writeLine("D=M");
+			writeLine("@" + (numArgs - k));
+			writeLine("A=D-A");
+			writeLine("D=M");
+			if(direct) {
+				writeLine("@ARG");
+				writeLine("A=M");
+				for(int j = 0; j < k; j++) {
+					writeLine("A=A+1");
+				}
+			}
+			else {
+				writeLine("@R13");
+				writeLine("A=M");
+			}
+			writeLine("M=D");
+		}
+
+		// drop locals and stack of current function, callee pushes its own locals at LCL
+		writeLine("@LCL");
+		writeLine("D=M");
+		writeLine("@SP");
+		writeLine("M=D");
+		writeLine("@" + functionName);
+		writeLine("0;JMP");
+
+		if(numArgs > 0) {
+			writer.println("(" + fallback + ")");
+			writeCall(functionName, numArgs);
+			writeReturn();
+		}
+	}
+
+	/**
+	 * Writes the body of a leaf function in place of a call to it
+	 * Stack at the call site: arguments, locals, saved THIS/THAT, then the operand stack of the body
+	 * Arguments and locals are addressed relative to SP, the depth of the operand stack is known at each command
+	 * 
+	 * @param f       Function to inline
+	 * @param numArgs Number of arguments pushed by the caller
+	 */
+	private void writeInlined(Inliner.Candidate f, int numArgs) {
+		writer.println("// inline " + f.name() + " " + numArgs);
+		if(options.compactLocals) {
+			writeZeros(f.numLocals());
+		}
+		else {
+			for(int i = 0; i < f.numLocals(); i++) {
+				writeLine("@SP");
+				writeLine("AM=M+1");
+				writeLine("A=A-1");
+				writeLine("M=0");
+			}
+		}
+		if(f.savesThis()) {
+			writeLine("@THIS");
+			writeLine("D=M");
+			pushDFast();
+		}
+		if(f.savesThat()) {
+			writeLine("@THAT");
+			writeLine("D=M");
+			pushDFast();
+		}
+
+		// words between frame base and operand stack of body
+		int frame = numArgs + f.numLocals() + f.saved();
+		String callerPrefix = staticPrefix;
+		staticPrefix = f.file();
+		int depth = 0;
+		for(Command cmd : f.body()) {
+			Segment segment = cmd.segment();
+			if(segment == Segment.ARGUMENT || segment == Segment.LOCAL) {
+				int slot = segment == Segment.ARGUMENT ? cmd.index() : numArgs + cmd.index();
+				writer.printf("// %s %s %d\n", cmd.opcode().keyword(), segment.keyword(), cmd.index());
+				if(cmd.opcode() == Opcode.PUSH) {
+					spill();
+					frameAddressToA(frame + depth - slot);
+					writeLine("D=M");
+					pushDToStack();
+				}
+				else {
+					popStackToD();
+					storeFrameD(frame + depth - 1 - slot);
+				}
+			}
+			else {
+				writeCommand(cmd);
+			}
+			depth += cmd.opcode().stackEffect();
+		}
+		staticPrefix = callerPrefix;
+
+		// return value replaces the first argument, or the first local if there are none
+		writer.println("// inline return");
+		if(frame == 0) {
+			return;
+		}
+		if(f.saved() > 0) {
+			spill();
+			int offset = 2;
+			if(f.savesThat()) {
+				frameAddressToA(offset++);
+				writeLine("D=M");
+				writeLine("@THAT");
+				writeLine("M=D");
+			}
+			if(f.savesThis()) {
+				frameAddressToA(offset);
+				writeLine("D=M");
+				writeLine("@THIS");
+				writeLine("M=D");
+			}
+		}
+		popStackToD();
+		if(frame <= MAX_DIRECT_OFFSET + 1) {
+			frameAddressToA(frame);
+			writeLine("M=D");
+			writeLine("D=A+1");
+			writeLine("@SP");
+			writeLine("M=D");
+		}
+		else {
+			writeLine("@R13");
+			writeLine("M=D");
+			writeLine("@" + frame);
+			writeLine("D=A");
+			writeLine("@SP");
+			writeLine("M=M-D");
+			writeLine("@R13");
+			writeLine("D=M");
+			pushDFast();
+		}
+	}
+
+	/**
+	 * Loads address SP - offset into A
+	 * 
+	 * @param offset distance below SP, at least 1
+	 */
+	private void frameAddressToA(int offset) {
+		if(offset <= MAX_DIRECT_OFFSET + 1) {
+			writeLine("@SP");
+			writeLine("A=M-1");
+			for(int k = 1; k < offset; k++) {
+				writeLine("A=A-1");
+			}
+		}
+		else {
+			writeLine("@" + offset);
+			writeLine("D=A");
+			writeLine("@SP");
+			writeLine("A=M-D");
+		}
+	}
+
+	/**
+	 * Stores D at address SP - offset
+	 * 
+	 * @param offset distance below SP, at least 1
+	 */
+	private void storeFrameD(int offset) {
+		if(offset <= MAX_DIRECT_OFFSET + 1) {
+			frameAddressToA(offset);
+			writeLine("M=D");
+			return;
+		}
+		// address is computed in D, so keep value in R13 meanwhile
+		writeLine("@R13");
+		writeLine("M=D");
+		writeLine("@" + offset);
+		writeLine("D=A");
+		writeLine("@SP");
+		writeLine("D=M-D");
+		writeLine("@R14");
+		writeLine("M=D");
+		writeLine("@R13");
+		writeLine("D=M");
+		writeLine("@R14");
+		writeLine("A=M");
+		writeLine("M=D");
+	}
+
+	/**
+	 * Writes the routines shared by all call sites of the program
+	 * Call once per output file, after all VM commands are written
+	 */
+	public void writeSharedRoutines() {
+		spill();
+		if(options.sharedCalls) {
+			writeCallRoutine();
+			writeReturnRoutine();
+		}
+		if(options.sharedCompare) {
+			writeCompareRoutine("JEQ");
+			writeCompareRoutine("JGT");
+			writeCompareRoutine("JLT");
+		}
+	}
+
+	/**
+	 * Shared call routine: saves caller frame, repositions ARG and LCL and jumps to callee
+	 * Expects R13 = callee address, R14 = return address, D = number of arguments
+	 */
+	private void writeCallRoutine() {
+		writer.println("// shared call routine");
+		writer.println("(" + CALL_ROUTINE + ")");
+
+		// new ARG = SP - numArgs, taken before the frame is saved and kept in R15
+		writeLine("@SP");
+		writeLine("D=M-D");
+		writeLine("@R15");
+		writeLine("M=D");
+
+		// save calling function
+		writeLine("@R14");
+		writeLine("D=M");
+		pushDFast();
+		String[] pointers = {"LCL", "ARG", "THIS", "THAT"};
+		for(String pointer : pointers) {
+			writeLine("@" + pointer);
+			writeLine("D=M");
+			pushDFast();
+		}
+
+		// reposition ARG and LCL
+		writeLine("@R15");
+		writeLine("D=M");
+		writeLine("@ARG");
+		writeLine("M=D");
+		writeLine("@SP");
+		writeLine("D=M");
+		writeLine("@LCL");
+		writeLine("M=D");
+
+		// transfer control
+		writeLine("@R13");
+		writeLine("A=M");
+		writeLine("0;JMP");
+	}
+
+	/**
+	 * Shared return routine, same code as an inlined return
+	 */
+	private void writeReturnRoutine() {
+		writer.println("// shared return routine");
+		writer.println("(" + RETURN_ROUTINE + ")");
+		writeReturnBody();
+	}
+
+	/**
+	 * Pushes D in 4 instructions by incrementing SP first
+	 */
+	private void pushDFast() {
+		writeLine("@SP");
+		writeLine("AM=M+1");
+		writeLine("A=A-1");
+		writeLine("M=D");
 	}
 
 	/**
@@ -166,8 +1038,21 @@ public class CodeWriter {
 	 * Returns to return value and restores all pointers back to pointers before call
 	 */
 	public void writeReturn() {
+		spill();
 		writer.println("// return");
 
+		if(options.sharedCalls) {
+			writeLine("@" + RETURN_ROUTINE);
+			writeLine("0;JMP");
+			return;
+		}
+		writeReturnBody();
+	}
+
+	/**
+	 * Restores caller frame and jumps to return address
+	 */
+	private void writeReturnBody() {
 		// FRAME = LCL
 		writer.println("// set FRAME = LCL");
 		writeLine("@LCL");
@@ -254,101 +1139,138 @@ public class CodeWriter {
 		writer.println("// function " + functionName + numLocals);
 
 		// declare label for function entry
-		writeLabel(functionName);
+		spill();
+		writer.println("(" + functionName + ")");
 
 		// initialize local variables to 0
+		if(options.compactLocals) {
+			writeZeros(numLocals);
+			return;
+		}
 		for(int i = 0; i<numLocals; i++) {
-			writePushPop(Parser.C_PUSH, "constant", 0);
+			writePushPop(Opcode.PUSH, Segment.CONSTANT, 0);
 		}
 	}
 
 	/**
-	 * Returns segment label equivalent in Hack Assembly
+	 * Pushes count zeros, unrolled or as a counted loop, whichever is cheaper for the optimization goal
+	 * Unrolled: 2 * count + 4 instructions and cycles, SP is set once at the end
+	 * Loop: 9 instructions, 7 * count + 2 cycles
 	 * 
-	 * @param segment VM segment
-	 * @return Hack Assembly equivalent of VM segment
+	 * @param count Number of zeros to push
 	 */
-	private String getLabel(String segment) {
-		if(segment.equalsIgnoreCase("local")) {
-			return "@LCL";
-		}
-		else if(segment.equalsIgnoreCase("argument")) {
-			return "@ARG";
+	private void writeZeros(int count) {
+		if(count == 0) {
+			return;
 		}
-		else if(segment.equalsIgnoreCase("this")) {
-			return "@THIS";
+		if(count == 1) {
+			writeLine("@SP");
+			writeLine("AM=M+1");
+			writeLine("A=A-1");
+			writeLine("M=0");
+			return;
 		}
-		else if(segment.equalsIgnoreCase("that")) {
-			return "@THAT";
+		int unrolledSize = 2 * count + 4;
+		int loopSize = 9;
+		if(options.optimizeSize && loopSize < unrolledSize) {
+			String loop = labelPrefix + "ZEROLOOP" + labelNum;
+			labelNum++;
+			writeLine("@" + count);
+			writeLine("D=A");
+			writer.println("(" + loop + ")");
+			writeLine("@SP");
+			writeLine("AM=M+1");
+			writeLine("A=A-1");
+			writeLine("M=0");
+			writeLine("D=D-1");
+			writeLine("@" + loop);
+			writeLine("D;JGT");
+			return;
 		}
-		else if(segment.equalsIgnoreCase("temp")) {
-			return "@R5";
+		writeLine("@SP");
+		writeLine("A=M");
+		writeLine("M=0");
+		for(int i = 1; i < count; i++) {
+			writeLine("A=A+1");
+			writeLine("M=0");
 		}
-		else
-			return null;
+		writeLine("D=A+1");
+		writeLine("@SP");
+		writeLine("M=D");
 	}
 
 	/**
 	 * Closes writer
+	 * 
+	 * @throws UncheckedIOException if any of the code could not be written
 	 */
-	public void close() {
+	public void close() throws UncheckedIOException {
+		spill();
 		writer.close();
+		// PrintWriter keeps write errors to itself until asked
+		if(writer.checkError()) {
+			throw new UncheckedIOException(new IOException("Could not write assembly code"));
+		}
 	}
 
 	/**
 	 * Writes to output file the assembly code that implements the given arithmethic/logic command
 	 * 
-	 * @param operation String line containing the arithmetic operation
+	 * @param cmd Arithmetic/logic opcode
 	 */
-	public void writeArithmetic(String cmd) {
-		writer.printf("// %s\n",cmd);
+	public void writeArithmetic(Opcode cmd) {
+		writer.printf("// %s\n", cmd.keyword());
+		if(options.cacheTos) {
+			writeArithmeticCached(cmd);
+			return;
+		}
 		// cases for each arithmetic/logic function
 		// add, sub, neg, eq, gt, lt, and, or, not
-		switch(cmd.toLowerCase()) {
-			case "add":
+		switch(cmd) {
+			case ADD:
 				popStackToD();
 				decStackPointer();
 				loadStackPointerToA();
 				writer.println("M=D+M");
 				incStackPointer();
 				break;
-			case "sub":
+			case SUB:
 				popStackToD();
 				decStackPointer();
 				loadStackPointerToA();
 				writer.println("M=M-D");
 				incStackPointer();
 				break;
-			case "neg":
+			case NEG:
 				decStackPointer();
 				loadStackPointerToA();
 				writer.println("M=-M");
 				incStackPointer();
 				break;
-			case "eq":
+			case EQ:
 				writeCompareLogic("JEQ");
 				break;
-			case "gt":
+			case GT:
 				writeCompareLogic("JGT");
 				break;
-			case "lt":
+			case LT:
 				writeCompareLogic("JLT");
 				break;
-			case "and":
+			case AND:
 				popStackToD();
 				decStackPointer();
 				loadStackPointerToA();
 				writer.println("M=D&M");
 				incStackPointer();
 				break;
-			case "or":
+			case OR:
 				popStackToD();
 				decStackPointer();
 				loadStackPointerToA();
 				writer.println("M=D|M");
 				incStackPointer();
 				break;
-			case "not":
+			case NOT:
 				decStackPointer();
 				loadStackPointerToA();
 				writer.println("M=!M");
@@ -357,80 +1279,157 @@ public class CodeWriter {
 		}
 	}
 
+	/**
+	 * Writes arithmetic/logic command leaving its result cached in D
+	 * The topmost operand is taken from D if cached, the other one is popped from RAM
+	 * 
+	 * @param cmd Arithmetic/logic opcode
+	 */
+	private void writeArithmeticCached(Opcode cmd) {
+		switch(cmd) {
+			case NEG:
+			case NOT:
+				String op = cmd == Opcode.NEG ? "-" : "!";
+				if(cached) {
+					writeLine("D=" + op + "D");
+				}
+				else {
+					writeLine("@SP");
+					writeLine("AM=M-1");
+					writeLine("D=" + op + "M");
+				}
+				break;
+			case EQ:
+			case GT:
+			case LT:
+				String jumpCmd = "J" + cmd.keyword().toUpperCase();
+				if(options.sharedCompare) {
+					spill();
+					writeSharedCompare(jumpCmd);
+					return;
+				}
+				popStackToD();
+				writeLine("@SP");
+				writeLine("AM=M-1");
+				writeLine("D=M-D");
+				writeLine("@" + labelPrefix + "LABEL" + labelNum);
+				writeLine("D;" + jumpCmd);
+				writeLine("D=0");
+				writeLine("@" + labelPrefix + "ENDLABEL" + labelNum);
+				writeLine("0;JMP");
+				writer.println("(" + labelPrefix + "LABEL" + labelNum + ")");
+				writeLine("D=-1");
+				writer.println("(" + labelPrefix + "ENDLABEL" + labelNum + ")");
+				labelNum++;
+				break;
+			default:
+				popStackToD();
+				writeLine("@SP");
+				writeLine("AM=M-1");
+				switch(cmd) {
+					case ADD:
+						writeLine("D=D+M");
+						break;
+					case SUB:
+						writeLine("D=M-D");
+						break;
+					case AND:
+						writeLine("D=D&M");
+						break;
+					default:
+						writeLine("D=D|M");
+				}
+		}
+		cached = true;
+	}
+
 	/**
 	 * Writes to output file the assembly code that implements the given push/pop command
 	 * 
-	 * @param command Push/Pop command to translate
-	 * @param segment String segment
+	 * @param command PUSH/POP opcode to translate
+	 * @param segment Memory segment
 	 * @param index   int index within segment
 	 */
-	public void writePushPop(int command, String segment, int index) {
+	public void writePushPop(Opcode command, Segment segment, int index) {
 		// Push command
 		switch(command) {
-			case Parser.C_PUSH:
-				writer.printf("// push %s %d\n", segment, index);
+			case PUSH:
+				writer.printf("// push %s %d\n", segment.keyword(), index);
+				// value being pushed is loaded into D, so write out the cached one first
+				spill();
 				switch(segment) {
-					case "constant":
-						// store value in D
-						writeLine("@" + index);
-						writeLine("D=A");
+					case CONSTANT:
+						// store value in D, folded constants may be negative
+						loadConstantToD(index);
 						break;
-					case "local":
+					case LOCAL:
 						loadSegment("LCL", index);
 						writeLine("D=M");
 						break;
-					case "argument":
+					case ARGUMENT:
 						loadSegment("ARG", index);
 						writeLine("D=M");
 						break;
-					case "this":
+					case THIS:
 						loadSegment("THIS", index);
 						writeLine("D=M");
 						break;
-					case "that":
+					case THAT:
 						loadSegment("THAT", index);
 						writeLine("D=M");
 						break;
-					case "pointer":
+					case POINTER:
 						writeLine("@R" + String.valueOf(3+index));
 						writeLine("D=M");
 						break;
-					case "temp":
+					case TEMP:
 						writeLine("@R" + String.valueOf(5+index));
 						writeLine("D=M");
 						break;
-					case "static":
-						writeLine("@" + filename.split("\\.")[0] + String.valueOf(index));
+					case STATIC:
+						writeLine("@" + staticPrefix + String.valueOf(index));
 						writeLine("D=M");
 				}
 				pushDToStack();
 				break;
-			case Parser.C_POP:
-				writer.printf("// pop %s %d\n", segment, index);
+			case POP:
+				writer.printf("// pop %s %d\n", segment.keyword(), index);
+				if(cached && segment != Segment.CONSTANT) {
+					writeCachedPop(segment, index);
+					break;
+				}
+				spill();
+				if(options.directMoves && isAddressable(segment, index)) {
+					// store straight into the entry instead of going through R13
+					popStackToD();
+					addressToA(segment, index);
+					writeLine("M=D");
+					break;
+				}
 				switch(segment) {
-					case "constant":
+					case CONSTANT:
 						writeLine("@" + index);
 						break;
-					case "local":
+					case LOCAL:
 						loadSegment("LCL", index);
 						break;
-					case "argument":
+					case ARGUMENT:
 						loadSegment("ARG", index);
 						break;
-					case "this":
+					case THIS:
 						loadSegment("THIS", index);
 						break;
-					case "that":
+					case THAT:
 						loadSegment("THAT", index);
 						break;
-					case "pointer":
+					case POINTER:
 						writeLine("@R" + String.valueOf(3+index));
 						break;
-					case "temp":
+					case TEMP:
 						writeLine("@R" + String.valueOf(5+index));
 						break;
-					case "static":
-						writeLine("@" + filename.split("\\.")[0] + String.valueOf(index));
+					case STATIC:
+						writeLine("@" + staticPrefix + String.valueOf(index));
 						break;
 				}
 				writeLine("D=A");
@@ -444,29 +1443,182 @@ public class CodeWriter {
 		}
 	}
 	
+	/**
+	 * Stores the cached stack top held in D into a segment entry
+	 * 
+	 * @param segment Memory segment to pop into
+	 * @param index   index within segment
+	 */
+	private void writeCachedPop(Segment segment, int index) {
+		cached = false;
+		if(isAddressable(segment, index)) {
+			addressToA(segment, index);
+			writeLine("M=D");
+			return;
+		}
+		// address is computed in D, so keep value in R13 meanwhile
+		writeLine("@R13");
+		writeLine("M=D");
+		writeLine("@" + segment.base());
+		writeLine("D=M");
+		writeLine("@" + index);
+		writeLine("D=D+A");
+		writeLine("@R14");
+		writeLine("M=D");
+		writeLine("@R13");
+		writeLine("D=M");
+		writeLine("@R14");
+		writeLine("A=M");
+		writeLine("M=D");
+	}
+
 	/**
 	 * Deals with Branching/Jump logic
 	 * @param jumpCmd jump/branch command
 	 */
 	private void writeCompareLogic(String jumpCmd) {
+		if(options.sharedCompare) {
+			writeSharedCompare(jumpCmd);
+			return;
+		}
 		popStackToD();
 		decStackPointer();
 		loadStackPointerToA();
 		writer.println("D=M-D");
-		writer.println("@LABEL" + labelNum);
+		writer.println("@" + labelPrefix + "LABEL" + labelNum);
 		writer.println("D;" + jumpCmd);
 		loadStackPointerToA();
 		writer.println("M=0");
-		writer.println("@ENDLABEL" + labelNum);
+		writer.println("@" + labelPrefix + "ENDLABEL" + labelNum);
 		writer.println("0;JMP");
-		writer.println("(LABEL" + labelNum + ")");
+		writer.println("(" + labelPrefix + "LABEL" + labelNum + ")");
 		loadStackPointerToA();
 		writer.println("M=-1");
-		writer.println("(ENDLABEL" + labelNum + ")");
+		writer.println("(" + labelPrefix + "ENDLABEL" + labelNum + ")");
 		incStackPointer();
 		labelNum++;
 	}
 
+	/**
+	 * Compares the two topmost stack values and jumps straight to label, without pushing a boolean
+	 * @param cmp      EQ, GT or LT
+	 * @param negate   true to jump if comparison does not hold
+	 * @param label    String value of IF label
+	 * @param constant topmost operand if it is a constant not pushed on the stack, null otherwise
+	 */
+	private void writeCompareBranch(Opcode cmp, boolean negate, String label, Integer constant) {
+		String jumpCmd;
+		switch(cmp) {
+			case EQ:
+				jumpCmd = negate ? "JNE" : "JEQ";
+				break;
+			case GT:
+				jumpCmd = negate ? "JLE" : "JGT";
+				break;
+			default:
+				jumpCmd = negate ? "JGE" : "JLT";
+		}
+		writer.println("// " + (constant != null ? "push constant " + constant + " / " : "")
+				+ cmp.keyword() + (negate ? " / not" : "") + " / C_IF " + label);
+		if(cached) {
+			// topmost operand is already in D
+			cached = false;
+		}
+		else {
+			writeLine("@SP");
+			writeLine("AM=M-1");
+			writeLine("D=M");
+		}
+		if(constant != null) {
+			// D = x - constant
+			if(constant > 0) {
+				writeLine("@" + constant);
+				writeLine("D=D-A");
+			}
+			else if(constant > -32768) {
+				writeLine("@" + (-constant));
+				writeLine("D=D+A");
+			}
+			else if(constant < 0) {
+				writeLine("@32767");
+				writeLine("D=D+A");
+				writeLine("D=D+1");
+			}
+		}
+		else {
+			writeLine("@SP");
+			writeLine("AM=M-1");
+			writeLine("D=M-D");
+		}
+		writeLine("@" + label);
+		writeLine("D;" + jumpCmd);
+	}
+
+	/**
+	 * Writes a comparison as a jump to the shared routine of its kind
+	 * R14 = return address
+	 * @param jumpCmd jump/branch command
+	 */
+	private void writeSharedCompare(String jumpCmd) {
+		String returnAddress = labelPrefix + "ENDLABEL" + labelNum;
+		writeLine("@" + returnAddress);
+		writeLine("D=A");
+		writeLine("@R14");
+		writeLine("M=D");
+		writeLine("@" + compareRoutine(jumpCmd));
+		writeLine("0;JMP");
+		writer.println("(" + returnAddress + ")");
+		labelNum++;
+	}
+
+	/**
+	 * Shared comparison routine: replaces the two topmost stack values with -1 if the comparison holds, 0 otherwise
+	 * Expects R14 = return address
+	 * @param jumpCmd jump/branch command of comparison
+	 */
+	private void writeCompareRoutine(String jumpCmd) {
+		String routine = compareRoutine(jumpCmd);
+		writer.println("// shared " + jumpCmd + " routine");
+		writer.println("(" + routine + ")");
+		writeLine("@SP");
+		writeLine("AM=M-1");
+		writeLine("D=M");
+		writeLine("A=A-1");
+		writeLine("D=M-D");
+		writeLine("M=-1");
+		writeLine("@" + routine + "$true");
+		writeLine("D;" + jumpCmd);
+		writeLine("@SP");
+		writeLine("A=M-1");
+		writeLine("M=0");
+		writer.println("(" + routine + "$true)");
+		writeLine("@R14");
+		writeLine("A=M");
+		writeLine("0;JMP");
+	}
+
+	/**
+	 * @param jumpCmd jump/branch command of comparison
+	 * @return label of shared routine implementing comparison
+	 */
+	private static String compareRoutine(String jumpCmd) {
+		return "VM$" + jumpCmd;
+	}
+
+	/**
+	 * Writes the stack top cached in D to RAM
+	 * Called before code that uses D for something else and at block boundaries
+	 */
+	private void spill() {
+		if(cached) {
+			writeLine("@SP");
+			writeLine("AM=M+1");
+			writeLine("A=A-1");
+			writeLine("M=D");
+			cached = false;
+		}
+	}
+
 	/**
 	 * Abstraction Functions
 	 */
@@ -481,12 +1633,22 @@ public class CodeWriter {
 	}
 
 	private void popStackToD() {
+		if(cached) {
+			// top of stack is already in D
+			cached = false;
+			return;
+		}
 		decStackPointer();
 		writer.println("A=M");
 		writer.println("D=M");
 	}
 
 	private void pushDToStack() {
+		if(options.cacheTos) {
+			// keep value in D until a later command needs the register
+			cached = true;
+			return;
+		}
 		loadStackPointerToA();
 		writer.println("M=D");
 		incStackPointer();
@@ -0,0 +1,93 @@
+/**
+ * @author Brian Song
+ * @description Single decoded VM command: opcode, segment, index and interned symbol
+ */
+public final class Command {
+	private final Opcode opcode;	//command opcode
+	private final Segment segment;	//push/pop segment, null for other commands
+	private final int index;		//push/pop index, function locals or call arguments, 0 otherwise
+	private final int symbol;		//interned id of label/function name, -1 if none
+	private final String name;		//label/function name, shared with symbol table
+
+	public Command(Opcode opcode, Segment segment, int index, int symbol, String name) {
+		this.opcode = opcode;
+		this.segment = segment;
+		this.index = index;
+		this.symbol = symbol;
+		this.name = name;
+	}
+
+	/**
+	 * Creates arithmetic/logic or return command
+	 * @param opcode command opcode
+	 * @return decoded command
+	 */
+	public static Command of(Opcode opcode) {
+		return new Command(opcode, null, 0, -1, null);
+	}
+
+	/**
+	 * Creates push/pop command
+	 * @param opcode  PUSH or POP
+	 * @param segment memory segment
+	 * @param index   index within segment
+	 * @return decoded command
+	 */
+	public static Command of(Opcode opcode, Segment segment, int index) {
+		return new Command(opcode, segment, index, -1, null);
+	}
+
+	/**
+	 * Creates label, goto, if-goto, function or call command
+	 * @param opcode  command opcode
+	 * @param symbols table to intern name in
+	 * @param name    label or function name
+	 * @param index   number of locals/arguments, 0 for labels
+	 * @return decoded command
+	 */
+	public static Command of(Opcode opcode, SymbolTable symbols, String name, int index) {
+		int symbol = symbols.intern(name);
+		return new Command(opcode, null, index, symbol, symbols.name(symbol));
+	}
+
+	public Opcode opcode() {
+		return opcode;
+	}
+
+	public Segment segment() {
+		return segment;
+	}
+
+	public int index() {
+		return index;
+	}
+
+	public int symbol() {
+		return symbol;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * @return command in VM language
+	 */
+	@Override
+	public String toString() {
+		switch(opcode) {
+			case PUSH:
+			case POP:
+				return opcode.keyword() + " " + segment.keyword() + " " + index;
+			case FUNCTION:
+			case CALL:
+				return opcode.keyword() + " " + name + " " + index;
+			case LABEL:
+			case GOTO:
+			case IF_GOTO:
+				return opcode.keyword() + " " + name;
+			default:
+				return opcode.keyword();
+		}
+	}
+}
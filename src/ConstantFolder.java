@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Brian Song
+ * @description Evaluates arithmetic/logic on constants at translate time, using 16-bit Hack semantics
+ * Folded constants are signed 16-bit values, so a folded "push constant" may hold a negative index
+ */
+public class ConstantFolder {
+	/**
+	 * Folds constant-only arithmetic/logic in a block of commands
+	 * push constant 3, push constant 4, add becomes push constant 7
+	 * Operations that leave their operand unchanged, such as push constant 0, add, are removed
+	 *
+	 * @param cmds Commands to fold, in program order
+	 * @return folded commands
+	 */
+	public static List<Command> fold(List<Command> cmds) {
+		ArrayList<Command> out = new ArrayList<Command>(cmds.size());
+		for(Command cmd : cmds) {
+			Opcode op = cmd.opcode();
+			int n = out.size();
+			if(op.isBinary() && n >= 2 && isConstant(out.get(n - 2)) && isConstant(out.get(n - 1))) {
+				int x = out.get(n - 2).index();
+				int y = out.get(n - 1).index();
+				out.remove(n - 1);
+				out.set(n - 2, constant(evaluate(op, x, y)));
+			}
+			else if(op.isArithmetic() && !op.isBinary() && n >= 1 && isConstant(out.get(n - 1))) {
+				out.set(n - 1, constant(evaluate(op, out.get(n - 1).index(), 0)));
+			}
+			else if(op.isBinary() && n >= 1 && isConstant(out.get(n - 1)) && isIdentity(op, out.get(n - 1).index())) {
+				out.remove(n - 1);
+			}
+			else {
+				out.add(cmd);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @param cmd Command to check
+	 * @return true if command pushes a constant
+	 */
+	public static boolean isConstant(Command cmd) {
+		return cmd.opcode() == Opcode.PUSH && cmd.segment() == Segment.CONSTANT;
+	}
+
+	/**
+	 * Evaluates an arithmetic/logic command the way the generated Hack code does
+	 * Comparisons subtract in 16 bits and test the sign, so they wrap around like D=M-D does
+	 *
+	 * @param op Arithmetic/logic opcode
+	 * @param x  first (deeper) operand
+	 * @param y  second (topmost) operand, ignored by neg and not
+	 * @return signed 16-bit result
+	 */
+	public static int evaluate(Opcode op, int x, int y) {
+		switch(op) {
+			case ADD:
+				return (short) (x + y);
+			case SUB:
+				return (short) (x - y);
+			case NEG:
+				return (short) -x;
+			case NOT:
+				return (short) ~x;
+			case AND:
+				return (short) (x & y);
+			case OR:
+				return (short) (x | y);
+			case EQ:
+				return (short) (x - y) == 0 ? -1 : 0;
+			case GT:
+				return (short) (x - y) > 0 ? -1 : 0;
+			case LT:
+				return (short) (x - y) < 0 ? -1 : 0;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic command: " + op.keyword());
+		}
+	}
+
+	/**
+	 * @param op Binary opcode
+	 * @param y  constant topmost operand
+	 * @return true if applying op with y leaves the other operand unchanged
+	 */
+	private static boolean isIdentity(Opcode op, int y) {
+		switch(op) {
+			case ADD:
+			case SUB:
+			case OR:
+				return y == 0;
+			case AND:
+				return y == -1;
+			default:
+				return false;
+		}
+	}
+
+	private static Command constant(int value) {
+		return Command.of(Opcode.PUSH, Segment.CONSTANT, value);
+	}
+}
@@ -0,0 +1,251 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * @author Brian Song
+ * @description Writer placed behind CodeWriter that assembles the generated code into a .hack file
+ * Instructions are encoded as they arrive and labels are recorded at their address, so the code is read once
+ * Symbols are resolved on close: labels such as return-address<n> and LABEL<n> to their address,
+ * every other symbol, like the static variables named file name and index (Class03), to the next free RAM address from 16 on
+ * The machine code is then written as 16 character binary lines through one pre-sized buffer and a FileChannel
+ */
+public class HackAssembler extends Writer {
+	private static final int ROM_SIZE = 32768;
+	private static final int FIRST_VARIABLE = 16;	// RAM address of the first variable
+	private static final int LINE_LENGTH = 17;		// 16 bits and a newline
+
+	// Computations by mnemonic, as the a bit followed by c1..c6
+	private static final HashMap<String, Integer> COMP = new HashMap<String, Integer>();
+	private static final String[] JUMPS = {"", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+
+	static {
+		String[] mnemonics = {"0", "1", "-1", "D", "A", "!D", "!A", "-D", "-A", "D+1", "A+1", "D-1", "A-1",
+				"D+A", "D-A", "A-D", "D&A", "D|A"};
+		int[] bits = {0b0101010, 0b0111111, 0b0111010, 0b0001100, 0b0110000, 0b0001101, 0b0110001, 0b0001111,
+				0b0110011, 0b0011111, 0b0110111, 0b0001110, 0b0110010, 0b0000010, 0b0010011, 0b0000111,
+				0b0000000, 0b0010101};
+		for(int i = 0; i < mnemonics.length; i++) {
+			COMP.put(mnemonics[i], bits[i]);
+			if(mnemonics[i].indexOf('A') >= 0) {
+				COMP.put(mnemonics[i].replace('A', 'M'), bits[i] | 0b1000000);
+			}
+		}
+		// operands of commutative operations may be written either way round
+		String[] commutative = {"D+A", "D&A", "D|A", "D+M", "D&M", "D|M"};
+		for(String mnemonic : commutative) {
+			COMP.put(mnemonic.substring(2) + mnemonic.charAt(1) + mnemonic.charAt(0), COMP.get(mnemonic));
+		}
+	}
+
+	private final File output;					// .hack file written on close
+	private final StringBuilder line = new StringBuilder();	// chars of line being received
+	private int[] code = new int[4096];			// machine code, symbolic A-instructions as -1 - index into references
+	private int size;							// number of instructions assembled
+	private final HashMap<String, Integer> symbols = predefinedSymbols();	// labels and predefined symbols
+	private final ArrayList<String> references = new ArrayList<String>();	// symbols used by A-instructions
+	private final HashMap<String, Integer> referenceIndex = new HashMap<String, Integer>();	// index of each symbol in references
+	private final HashMap<String, Integer> encoded = new HashMap<String, Integer>();	// C-instructions already encoded
+
+	/**
+	 * @param output .hack file to write machine code to
+	 */
+	public HackAssembler(File output) {
+		this.output = output;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		for(int i = off; i < off + len; i++) {
+			receive(cbuf[i]);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		// CodeWriter prints through a PrintWriter, which hands over whole strings
+		for(int i = off; i < off + len; i++) {
+			receive(str.charAt(i));
+		}
+	}
+
+	@Override
+	public void flush() {
+		// nothing is written before close, every symbol has to be known first
+	}
+
+	/**
+	 * Resolves symbols and writes the machine code to the output file
+	 * @throws UncheckedIOException if output could not be written
+	 * @throws IllegalArgumentException if the program does not fit in ROM
+	 */
+	@Override
+	public void close() throws IOException {
+		if(line.length() > 0) {
+			assemble(line.toString());
+			line.setLength(0);
+		}
+		if(size > ROM_SIZE) {
+			throw new IllegalArgumentException("Program exceeds ROM (" + size + " words)");
+		}
+		int[] addresses = resolve();
+		ByteBuffer buffer = ByteBuffer.allocate(size * LINE_LENGTH);
+		for(int i = 0; i < size; i++) {
+			int word = code[i] < 0 ? addresses[-1 - code[i]] : code[i];
+			for(int bit = 15; bit >= 0; bit--) {
+				buffer.put((byte) ((word >> bit & 1) == 0 ? '0' : '1'));
+			}
+			buffer.put((byte) '\n');
+		}
+		buffer.flip();
+		try {
+			FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				while(buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} finally {
+				channel.close();
+			}
+		} catch(IOException e) {
+			// a PrintWriter in front would swallow an IOException, this reaches the caller with its reason
+			throw new UncheckedIOException("Could not write " + output + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return number of instructions assembled so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void receive(char c) {
+		if(c == '\n') {
+			assemble(line.toString());
+			line.setLength(0);
+		}
+		else if(c != '\r') {
+			line.append(c);
+		}
+	}
+
+	/**
+	 * Assembles one line of code, labels are recorded at the address of the next instruction
+	 * @param text line of assembly code
+	 * @throws IllegalArgumentException if line is not valid Hack assembly
+	 */
+	private void assemble(String text) {
+		int comment = text.indexOf("//");
+		if(comment >= 0) {
+			text = text.substring(0, comment);
+		}
+		text = text.trim();
+		if(text.isEmpty()) {
+			return;
+		}
+		if(text.startsWith("(")) {
+			symbols.put(text.substring(1, text.length() - 1), size);
+			return;
+		}
+		if(size == code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		if(!text.startsWith("@")) {
+			Integer word = encoded.get(text);
+			if(word == null) {
+				word = encode(text);
+				encoded.put(text, word);
+			}
+			code[size++] = word;
+			return;
+		}
+		String symbol = text.substring(1);
+		if(Character.isDigit(symbol.charAt(0))) {
+			int value = Integer.parseInt(symbol);
+			if(value > 32767) {
+				throw new IllegalArgumentException("Constant out of range: " + text);
+			}
+			code[size++] = value;
+			return;
+		}
+		Integer index = referenceIndex.get(symbol);
+		if(index == null) {
+			index = references.size();
+			references.add(symbol);
+			referenceIndex.put(symbol, index);
+		}
+		code[size++] = -1 - index;
+	}
+
+	/**
+	 * Gives every referenced symbol its address, variables are numbered in order of first use
+	 * @return address of each symbol in references
+	 */
+	private int[] resolve() {
+		int[] addresses = new int[references.size()];
+		int nextVariable = FIRST_VARIABLE;
+		for(int i = 0; i < addresses.length; i++) {
+			Integer address = symbols.get(references.get(i));
+			addresses[i] = address != null ? address : nextVariable++;
+		}
+		return addresses;
+	}
+
+	/**
+	 * Encodes a C-instruction
+	 *
+	 * @param text dest=comp;jump instruction
+	 * @return 16-bit machine code
+	 * @throws IllegalArgumentException if instruction is not valid
+	 */
+	static int encode(String text) {
+		int dest = 0;
+		int jump = 0;
+		int equals = text.indexOf('=');
+		if(equals >= 0) {
+			String d = text.substring(0, equals);
+			dest = (d.indexOf('A') >= 0 ? 4 : 0) | (d.indexOf('D') >= 0 ? 2 : 0) | (d.indexOf('M') >= 0 ? 1 : 0);
+			text = text.substring(equals + 1);
+		}
+		int semicolon = text.indexOf(';');
+		if(semicolon >= 0) {
+			jump = Arrays.asList(JUMPS).indexOf(text.substring(semicolon + 1));
+			text = text.substring(0, semicolon);
+			if(jump < 0) {
+				throw new IllegalArgumentException("Invalid jump: " + text);
+			}
+		}
+		Integer comp = COMP.get(text);
+		if(comp == null) {
+			throw new IllegalArgumentException("Invalid computation: " + text);
+		}
+		return 0xE000 | comp << 6 | dest << 3 | jump;
+	}
+
+	/**
+	 * @return symbols every Hack program can use, by name
+	 */
+	static HashMap<String, Integer> predefinedSymbols() {
+		HashMap<String, Integer> symbols = new HashMap<String, Integer>();
+		for(int i = 0; i < 16; i++) {
+			symbols.put("R" + i, i);
+		}
+		symbols.put("SP", 0);
+		symbols.put("LCL", 1);
+		symbols.put("ARG", 2);
+		symbols.put("THIS", 3);
+		symbols.put("THAT", 4);
+		symbols.put("SCREEN", 16384);
+		symbols.put("KBD", 24576);
+		return symbols;
+	}
+}
@@ -0,0 +1,411 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Brian Song
+ * @description Hack CPU emulator for measuring the runtime cost of generated code
+ * Loads .asm output of the translator (or assembled .hack files), runs it for a number of cycles
+ * or until it reaches a halt loop, and counts executed instructions per VM command that produced them
+ *
+ * Usage: java HackEmulator file.asm|file.hack [maxCycles]
+ */
+public class HackEmulator {
+	private static final int RAM_SIZE = 32768;
+	private static final int ROM_SIZE = 32768;
+	private static final int C_INSTRUCTION = 0x80000000; // flag of decoded C-instructions
+	private static final String UNKNOWN = "(other)"; // key of instructions without a VM command comment
+
+	private short[] rom;		// machine code
+	private int[] decoded;		// A-instructions as their value, C-instructions as comp | dest << 7 | jump << 10 | flag
+	private int[] source;		// index of VM command key of each instruction
+	private ArrayList<String> keys = new ArrayList<String>(); // VM command keys, such as "push" or "lt/if-goto"
+	private long[] hits;		// times each instruction was executed
+
+	private short[] ram = new short[RAM_SIZE];
+	private int a;
+	private int d;
+	private int pc;
+	private long cycles;
+	private boolean halted;
+
+	/**
+	 * Assembles Hack assembly text
+	 * Instructions are attributed to the VM command named by the latest "// command" comment before them
+	 *
+	 * @param lines lines of assembly code
+	 * @throws IllegalArgumentException if a line is not valid Hack assembly or the program does not fit in ROM
+	 */
+	public HackEmulator(List<String> lines) throws IllegalArgumentException {
+		HashMap<String, Integer> symbols = HackAssembler.predefinedSymbols();
+		ArrayList<String> instructions = new ArrayList<String>();
+		ArrayList<Integer> sources = new ArrayList<Integer>();
+		HashMap<String, Integer> keyIndex = new HashMap<String, Integer>();
+		int key = keyIndex(UNKNOWN, keyIndex);
+
+		// first pass: labels and attribution
+		for(String line : lines) {
+			String text = line.trim();
+			if(text.startsWith("//")) {
+				String command = commandKey(text.substring(2).trim());
+				if(command != null) {
+					key = keyIndex(command, keyIndex);
+				}
+				continue;
+			}
+			int comment = text.indexOf("//");
+			if(comment >= 0) {
+				text = text.substring(0, comment).trim();
+			}
+			if(text.isEmpty()) {
+				continue;
+			}
+			if(text.startsWith("(")) {
+				symbols.put(text.substring(1, text.length() - 1), instructions.size());
+			}
+			else {
+				instructions.add(text);
+				sources.add(key);
+			}
+		}
+
+		// addresses past the ROM would only show up as out of range labels
+		checkSize(instructions.size());
+
+		// second pass: machine code
+		rom = new short[instructions.size()];
+		source = new int[instructions.size()];
+		int nextVariable = 16;
+		for(int i = 0; i < rom.length; i++) {
+			String text = instructions.get(i);
+			source[i] = sources.get(i);
+			if(text.startsWith("@")) {
+				String symbol = text.substring(1);
+				int value;
+				if(Character.isDigit(symbol.charAt(0))) {
+					value = Integer.parseInt(symbol);
+				}
+				else {
+					Integer address = symbols.get(symbol);
+					if(address == null) {
+						address = nextVariable++;
+						symbols.put(symbol, address);
+					}
+					value = address;
+				}
+				if(value < 0 || value > 32767) {
+					throw new IllegalArgumentException("Constant out of range: " + text);
+				}
+				rom[i] = (short) value;
+			}
+			else {
+				rom[i] = (short) HackAssembler.encode(text);
+			}
+		}
+		decode();
+	}
+
+	/**
+	 * Loads machine code
+	 *
+	 * @param rom instructions, one 16-bit word each
+	 * @throws IllegalArgumentException if the program does not fit in ROM
+	 */
+	public HackEmulator(short[] rom) throws IllegalArgumentException {
+		checkSize(rom.length);
+		this.rom = rom.clone();
+		this.source = new int[rom.length];
+		keys.add(UNKNOWN);
+		decode();
+	}
+
+	/**
+	 * Loads a .asm file, or a .hack file of binary instruction lines
+	 *
+	 * @param file file to load
+	 * @return emulator holding the program
+	 * @throws IOException if file could not be read
+	 */
+	public static HackEmulator load(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		if(!file.getName().endsWith(".hack")) {
+			return new HackEmulator(lines);
+		}
+		short[] rom = new short[lines.size()];
+		int size = 0;
+		for(String line : lines) {
+			line = line.trim();
+			if(!line.isEmpty()) {
+				rom[size++] = (short) Integer.parseInt(line, 2);
+			}
+		}
+		return new HackEmulator(Arrays.copyOf(rom, size));
+	}
+
+	/**
+	 * @param size number of instructions in program
+	 * @throws IllegalArgumentException if size is larger than the ROM
+	 */
+	private static void checkSize(int size) throws IllegalArgumentException {
+		if(size > ROM_SIZE) {
+			throw new IllegalArgumentException("Program exceeds ROM (" + size + " words)");
+		}
+	}
+
+	/**
+	 * Pre-decodes machine code so the run loop does not extract bit fields
+	 */
+	private void decode() {
+		decoded = new int[rom.length];
+		hits = new long[rom.length];
+		for(int i = 0; i < rom.length; i++) {
+			int word = rom[i] & 0xFFFF;
+			if((word & 0x8000) == 0) {
+				decoded[i] = word;
+			}
+			else {
+				int comp = (word >> 6) & 0x7F;
+				int dest = (word >> 3) & 7;
+				int jump = word & 7;
+				decoded[i] = C_INSTRUCTION | comp | dest << 7 | jump << 10;
+			}
+		}
+	}
+
+	/**
+	 * Runs program until it halts, leaves ROM or maxCycles instructions have been executed
+	 * A program halts when it jumps back to an "@label" pointing at itself, like the loop ending every VM program
+	 *
+	 * @param maxCycles largest number of instructions to execute
+	 * @return number of instructions executed by this call
+	 */
+	public long run(long maxCycles) {
+		final int[] code = decoded;
+		final long[] counts = hits;
+		final short[] mem = ram;
+		int a = this.a;
+		int d = this.d;
+		int pc = this.pc;
+		long executed = 0;
+		while(executed < maxCycles && pc >= 0 && pc < code.length) {
+			int instruction = code[pc];
+			counts[pc]++;
+			executed++;
+			if(instruction >= 0) {
+				a = instruction;
+				pc++;
+				continue;
+			}
+			int m = mem[a & 0x7FFF];
+			int out = compute(instruction & 0x7F, a, d, m);
+			int dest = (instruction >> 7) & 7;
+			if((dest & 1) != 0) {
+				mem[a & 0x7FFF] = (short) out;
+			}
+			if((dest & 2) != 0) {
+				d = (short) out;
+			}
+			if((dest & 4) != 0) {
+				a = out & 0xFFFF;
+			}
+			int jump = (instruction >> 10) & 7;
+			if(jump != 0 && ((out < 0 && (jump & 4) != 0) || (out == 0 && (jump & 2) != 0) || (out > 0 && (jump & 1) != 0))) {
+				if(a == pc - 1 && dest == 0 && pc > 0 && code[pc - 1] == pc - 1) {
+					halted = true;
+					break;
+				}
+				pc = a;
+			}
+			else {
+				pc++;
+			}
+		}
+		this.a = a;
+		this.d = d;
+		this.pc = pc;
+		this.cycles += executed;
+		return executed;
+	}
+
+	/**
+	 * Hack ALU
+	 *
+	 * @param comp a bit and c1..c6 of instruction
+	 * @return signed 16-bit result
+	 */
+	private static int compute(int comp, int a, int d, int m) {
+		int y = (comp & 0x40) != 0 ? m : (short) a;
+		int out;
+		switch(comp & 0x3F) {
+			case 0b101010: out = 0; break;
+			case 0b111111: out = 1; break;
+			case 0b111010: out = -1; break;
+			case 0b001100: out = d; break;
+			case 0b110000: out = y; break;
+			case 0b001101: out = ~d; break;
+			case 0b110001: out = ~y; break;
+			case 0b001111: out = -d; break;
+			case 0b110011: out = -y; break;
+			case 0b011111: out = d + 1; break;
+			case 0b110111: out = y + 1; break;
+			case 0b001110: out = d - 1; break;
+			case 0b110010: out = y - 1; break;
+			case 0b000010: out = d + y; break;
+			case 0b010011: out = d - y; break;
+			case 0b000111: out = y - d; break;
+			case 0b000000: out = d & y; break;
+			case 0b010101: out = d | y; break;
+			default: throw new IllegalStateException("Invalid computation bits: " + Integer.toBinaryString(comp));
+		}
+		return (short) out;
+	}
+
+	/**
+	 * @return true if program reached its halt loop
+	 */
+	public boolean halted() {
+		return halted;
+	}
+
+	/**
+	 * @return total number of instructions executed
+	 */
+	public long cycles() {
+		return cycles;
+	}
+
+	/**
+	 * @param address RAM address
+	 * @return signed value of RAM word
+	 */
+	public int ram(int address) {
+		return ram[address];
+	}
+
+	/**
+	 * @param address RAM address
+	 * @param value   value to store
+	 */
+	public void setRam(int address, int value) {
+		ram[address] = (short) value;
+	}
+
+	/**
+	 * @return machine code of program
+	 */
+	public short[] rom() {
+		return rom.clone();
+	}
+
+	/**
+	 * Prints program size, instructions executed and their split by VM command
+	 *
+	 * @param out stream to print report in
+	 */
+	public void printReport(PrintStream out) {
+		long[] words = new long[keys.size()];
+		long[] executed = new long[keys.size()];
+		for(int i = 0; i < rom.length; i++) {
+			words[source[i]]++;
+			executed[source[i]] += hits[i];
+		}
+		Integer[] order = new Integer[keys.size()];
+		for(int k = 0; k < order.length; k++) {
+			order[k] = k;
+		}
+		Arrays.sort(order, (x, y) -> Long.compare(executed[y], executed[x]));
+
+		out.printf("ROM: %d words, executed: %d instructions%s%n", rom.length, cycles, halted ? " (halted)" : "");
+		out.printf("%-28s %8s %14s %7s%n", "command", "ROM", "executed", "share");
+		for(int k : order) {
+			if(words[k] == 0) {
+				continue;
+			}
+			out.printf("%-28s %8d %14d %6.1f%%%n", keys.get(k), words[k], executed[k],
+					cycles == 0 ? 0.0 : 100.0 * executed[k] / cycles);
+		}
+	}
+
+	/**
+	 * Turns a comment written by CodeWriter before a VM command into the key it is counted under
+	 * Fused commands are written as "push constant 1 / add", which becomes "push/add"
+	 *
+	 * @param comment comment text without //
+	 * @return key of command, null if comment does not start a command
+	 */
+	private static String commandKey(String comment) {
+		StringBuilder key = new StringBuilder();
+		for(String part : comment.split(" / ")) {
+			String word = part.trim().split("\\s+")[0];
+			switch(word) {
+				case "C_LABEL":
+					word = "label";
+					break;
+				case "C_GOTO":
+					word = "goto";
+					break;
+				case "C_IF":
+					word = "if-goto";
+					break;
+				case "shared":
+					// shared routines are counted by name, such as "shared call routine"
+					return comment;
+				case "push": case "pop": case "add": case "sub": case "neg": case "eq": case "gt": case "lt":
+				case "and": case "or": case "not": case "function": case "call": case "return": case "init":
+					break;
+				default:
+					return null;
+			}
+			if(key.length() > 0) {
+				key.append('/');
+			}
+			key.append(word);
+		}
+		return key.toString();
+	}
+
+	private int keyIndex(String key, HashMap<String, Integer> keyIndex) {
+		Integer index = keyIndex.get(key);
+		if(index == null) {
+			index = keys.size();
+			keys.add(key);
+			keyIndex.put(key, index);
+		}
+		return index;
+	}
+
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.out.println("Usage: java HackEmulator file.asm|file.hack [maxCycles]");
+			return;
+		}
+		try {
+			HackEmulator emulator = load(new File(args[0]));
+			long maxCycles = args.length > 1 ? Long.parseLong(args[1]) : 100000000L;
+			long start = System.nanoTime();
+			emulator.run(maxCycles);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			emulator.printReport(System.out);
+			System.out.printf("SP: %d, emulated at %.1f M instructions/s%n", emulator.ram(0),
+					emulator.cycles() / seconds / 1e6);
+		} catch(Exception e) {
+			System.out.println("Error: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Brian Song
+ * @description Finds small leaf functions whose calls CodeWriter replaces by their body
+ * A candidate makes no calls, has no labels or jumps, ends in its only return with one value on its stack,
+ * and has at most limit commands. Its arguments and locals are addressed relative to SP at the call site,
+ * so no frame is built, and THIS/THAT are saved on the stack only if the body writes pointer
+ */
+public class Inliner {
+	public static final int DEFAULT_LIMIT = 8;	//largest body inlined when no limit is given
+
+	/**
+	 * Function that is inlined at its call sites
+	 */
+	public static final class Candidate {
+		private final String name;			//function name
+		private final String file;			//file function is defined in, prefix of its static variables
+		private final int numLocals;		//number of locals, pushed as zeros at the call site
+		private final List<Command> body;	//commands between function and return
+		private final boolean savesThis;	//true if body writes pointer 0
+		private final boolean savesThat;	//true if body writes pointer 1
+
+		private Candidate(String name, String file, int numLocals, List<Command> body) {
+			this.name = name;
+			this.file = file;
+			this.numLocals = numLocals;
+			this.body = body;
+			boolean savesThis = false;
+			boolean savesThat = false;
+			for(Command cmd : body) {
+				if(cmd.opcode() == Opcode.POP && cmd.segment() == Segment.POINTER) {
+					savesThis |= cmd.index() == 0;
+					savesThat |= cmd.index() == 1;
+				}
+			}
+			this.savesThis = savesThis;
+			this.savesThat = savesThat;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public String file() {
+			return file;
+		}
+
+		public int numLocals() {
+			return numLocals;
+		}
+
+		public List<Command> body() {
+			return body;
+		}
+
+		public boolean savesThis() {
+			return savesThis;
+		}
+
+		public boolean savesThat() {
+			return savesThat;
+		}
+
+		/**
+		 * @return number of pointers saved on the stack below the operand stack of the body
+		 */
+		public int saved() {
+			return (savesThis ? 1 : 0) + (savesThat ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Chooses the functions to inline, removes them from the program and prints the size and cycle tradeoff
+	 * Every call of a chosen function is inlined, so its own code is no longer needed
+	 * @param program parsed program
+	 * @param limit   largest number of commands in an inlined body
+	 * @param options options code is generated with, used to measure the tradeoff
+	 * @return chosen functions by name
+	 */
+	public static Map<String, Candidate> inline(Program program, int limit, Options options) {
+		LinkedHashMap<String, Candidate> candidates = findCandidates(program, limit);
+		// call sites by callee, counting each number of arguments separately
+		LinkedHashMap<String, ArrayList<Integer>> sites = new LinkedHashMap<String, ArrayList<Integer>>();
+		for(int i = 0; i < program.size(); i++) {
+			for(Command cmd : program.commands(i)) {
+				if(cmd.opcode() == Opcode.CALL && candidates.containsKey(cmd.name())) {
+					ArrayList<Integer> args = sites.get(cmd.name());
+					if(args == null) {
+						args = new ArrayList<Integer>();
+						sites.put(cmd.name(), args);
+					}
+					args.add(cmd.index());
+				}
+			}
+		}
+		candidates.keySet().retainAll(sites.keySet());
+		if(candidates.isEmpty()) {
+			System.out.println("No functions inlined.");
+			return candidates;
+		}
+
+		HashSet<String> keep = new HashSet<String>();
+		for(int i = 0; i < program.size(); i++) {
+			for(Command cmd : program.commands(i)) {
+				if(cmd.opcode() == Opcode.FUNCTION && !candidates.containsKey(cmd.name())) {
+					keep.add(cmd.name());
+				}
+			}
+		}
+		program.retainFunctions(keep);
+
+		int totalSize = 0;
+		System.out.println("Inlined " + candidates.size() + " functions of at most " + limit + " commands:");
+		for(Candidate f : candidates.values()) {
+			// compare each inlined call with a call, the function entry and its return
+			int functionSize = size(null, options, f, -1);
+			int romChange = -functionSize;
+			int saved = 0;
+			ArrayList<Integer> args = sites.get(f.name());
+			for(int numArgs : args) {
+				int callSize = size(null, options, f, numArgs);
+				int inlineSize = size(candidates, options, f, numArgs);
+				romChange += inlineSize - callSize;
+				saved += callSize + functionSize - inlineSize;
+			}
+			totalSize += romChange;
+			System.out.println("  " + f.name() + " at " + args.size() + " call sites: ROM " + signed(romChange)
+					+ " words, about " + (saved / args.size()) + " fewer instructions executed per call");
+		}
+		System.out.println("ROM change from inlining: " + signed(totalSize) + " words");
+		return candidates;
+	}
+
+	/**
+	 * Finds leaf functions small and simple enough to inline
+	 * @param program parsed program
+	 * @param limit   largest number of commands in an inlined body
+	 * @return candidates by name, in program order
+	 */
+	public static LinkedHashMap<String, Candidate> findCandidates(Program program, int limit) {
+		LinkedHashMap<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+		for(int i = 0; i < program.size(); i++) {
+			List<Command> cmds = program.commands(i);
+			for(int start = 0; start < cmds.size(); start++) {
+				Command function = cmds.get(start);
+				if(function.opcode() != Opcode.FUNCTION || function.name().equals(CallGraph.ENTRY)) {
+					continue;
+				}
+				int end = start + 1;
+				while(end < cmds.size() && cmds.get(end).opcode() != Opcode.FUNCTION) {
+					end++;
+				}
+				// a function without commands, or not ending in return, is never inlined
+				if(end - start < 2 || end - start - 2 > limit || cmds.get(end - 1).opcode() != Opcode.RETURN) {
+					continue;
+				}
+				List<Command> body = cmds.subList(start + 1, end - 1);
+				if(isStraightLine(body)) {
+					candidates.put(function.name(), new Candidate(function.name(), program.name(i),
+							function.index(), new ArrayList<Command>(body)));
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * @param body commands of a function without its return
+	 * @return true if body only pushes, pops and computes, and leaves exactly one value for return
+	 */
+	private static boolean isStraightLine(List<Command> body) {
+		int depth = 0;
+		for(Command cmd : body) {
+			Opcode op = cmd.opcode();
+			if(op != Opcode.PUSH && op != Opcode.POP && !op.isArithmetic()) {
+				return false;
+			}
+			if(op == Opcode.POP && cmd.segment() == Segment.CONSTANT) {
+				return false;
+			}
+			int needed = op.isBinary() ? 2 : op == Opcode.PUSH ? 0 : 1;
+			if(depth < needed) {
+				return false;
+			}
+			depth += op.stackEffect();
+		}
+		return depth == 1;
+	}
+
+	/**
+	 * Measures generated code in instructions
+	 * @param inlined  functions to inline, null to translate calls as calls
+	 * @param options  options code is generated with
+	 * @param f        function measured
+	 * @param numArgs  number of arguments of call to measure, -1 to measure function itself
+	 * @return number of instructions generated
+	 */
+	private static int size(Map<String, Candidate> inlined, Options options, Candidate f, int numArgs) {
+		StringWriter buffer = new StringWriter();
+		CodeWriter cw = new CodeWriter(buffer);
+		cw.setOptions(options);
+		cw.setInlined(inlined != null ? inlined : Collections.<String, Candidate>emptyMap());
+		cw.setFileName(f.file());
+		if(numArgs >= 0) {
+			cw.writeCall(f.name(), numArgs);
+		}
+		else {
+			ArrayList<Command> cmds = new ArrayList<Command>();
+			cmds.add(Command.of(Opcode.FUNCTION, new SymbolTable(), f.name(), f.numLocals()));
+			cmds.addAll(f.body());
+			cmds.add(Command.of(Opcode.RETURN));
+			cw.writeCommands(cmds);
+		}
+		cw.close();
+		int count = 0;
+		for(String line : buffer.toString().split("\n")) {
+			if(!line.isEmpty() && !line.startsWith("//") && !line.startsWith("(")) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static String signed(int n) {
+		return n > 0 ? "+" + n : String.valueOf(n);
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * @author Brian Song
+ * @description VM command opcodes, decoded once by Parser so later stages switch on them instead of strings
+ */
+public enum Opcode {
+	ADD("add", Parser.C_ARITHMETIC),
+	SUB("sub", Parser.C_ARITHMETIC),
+	NEG("neg", Parser.C_ARITHMETIC),
+	EQ("eq", Parser.C_ARITHMETIC),
+	GT("gt", Parser.C_ARITHMETIC),
+	LT("lt", Parser.C_ARITHMETIC),
+	AND("and", Parser.C_ARITHMETIC),
+	OR("or", Parser.C_ARITHMETIC),
+	NOT("not", Parser.C_ARITHMETIC),
+	PUSH("push", Parser.C_PUSH),
+	POP("pop", Parser.C_POP),
+	LABEL("label", Parser.C_LABEL),
+	GOTO("goto", Parser.C_GOTO),
+	IF_GOTO("if-goto", Parser.C_IF),
+	FUNCTION("function", Parser.C_FUNCTION),
+	CALL("call", Parser.C_CALL),
+	RETURN("return", Parser.C_RETURN);
+
+	private final String keyword;	//VM keyword of opcode
+	private final int commandType;	//Parser command type constant of opcode
+
+	private Opcode(String keyword, int commandType) {
+		this.keyword = keyword;
+		this.commandType = commandType;
+	}
+
+	/**
+	 * @return VM keyword of opcode
+	 */
+	public String keyword() {
+		return keyword;
+	}
+
+	/**
+	 * @return Parser command type constant (C_ARITHMETIC, C_PUSH, ...) of opcode
+	 */
+	public int commandType() {
+		return commandType;
+	}
+
+	/**
+	 * @return true if opcode is an arithmetic/logic command
+	 */
+	public boolean isArithmetic() {
+		return commandType == Parser.C_ARITHMETIC;
+	}
+
+	/**
+	 * @return true if opcode is a binary arithmetic/logic command
+	 */
+	public boolean isBinary() {
+		return isArithmetic() && this != NEG && this != NOT;
+	}
+
+	/**
+	 * @return true if opcode is eq, gt or lt
+	 */
+	public boolean isComparison() {
+		return this == EQ || this == GT || this == LT;
+	}
+
+	/**
+	 * @return true if opcode takes a label or function name as first argument
+	 */
+	public boolean hasSymbol() {
+		return commandType >= Parser.C_LABEL && commandType <= Parser.C_CALL;
+	}
+
+	/**
+	 * @return change of stack depth caused by a command of this opcode, 0 for call and return
+	 */
+	public int stackEffect() {
+		if(this == PUSH) {
+			return 1;
+		}
+		if(this == POP || this == IF_GOTO || isBinary()) {
+			return -1;
+		}
+		return 0;
+	}
+}
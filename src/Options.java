@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+
+/**
+ * @author Brian Song
+ * @description Translator options read from command line flags
+ */
+public class Options {
+	public boolean parallel;		// translate files of a directory on a worker pool
+	public int threads = Runtime.getRuntime().availableProcessors(); // size of worker pool
+	public boolean sharedCalls;		// call sites jump to one shared call and return routine
+	public boolean sharedCompare;	// eq, gt and lt jump to one shared routine per comparison kind
+	public boolean fuseBranches;	// eq/gt/lt followed by if-goto jump directly, without a boolean
+	public boolean foldConstants;	// evaluate constant arithmetic at translate time, apply constant operands in place
+	public boolean directMoves;		// push/pop pairs and push, push, op, pop chains move values without touching SP
+	public boolean cacheTos;		// keep top of stack in D between commands of a basic block
+	public boolean superinstructions;	// translate frequent command sequences with hand tuned code
+	public boolean threadJumps;		// thread jump chains, reverse conditionals over a goto and drop unused labels
+	public boolean tailCalls;		// call directly followed by return reuses the frame of the current function
+	public boolean compactLocals;	// zero locals of a function with an unrolled sequence or a counted loop
+	public boolean optimizeSize;	// prefer smaller code over fewer cycles where a generator has the choice
+	public boolean peephole;		// remove redundant instructions from the generated code before it is written
+	public boolean dropUnreachable;	// parse whole program first and only translate functions reachable from Sys.init
+	public boolean inline;			// replace calls of small leaf functions by their body
+	public int inlineLimit = Inliner.DEFAULT_LIMIT; // largest number of commands in an inlined function
+	public boolean hack;			// assemble generated code and write a .hack file instead of a .asm file
+	public boolean cache;			// reuse translated code of files that did not change since an earlier run
+	public String cacheDir;			// directory of translation cache, null for .vmcache next to the output file
+	public boolean watch;			// keep running and translate again whenever a .vm file of the input changes
+	public int debounce = TranslationWatcher.DEFAULT_DEBOUNCE; // milliseconds without changes before translating again
+	public boolean sidecars;		// read parsed commands from .vmb sidecars of the .vm files, writing missing ones
+	public boolean chunkedLex;		// lex chunks of a large .vm file on several threads
+	public int lexThreads = Runtime.getRuntime().availableProcessors(); // chunks of a file lexed at the same time
+	public boolean batch;			// translate every input as a separate program, in one process
+	public int batchThreads = Runtime.getRuntime().availableProcessors(); // programs translated at the same time
+	public String manifest;			// file listing programs to translate in batch mode, null if there is none
+
+	public ArrayList<String> inputs = new ArrayList<String>(); // arguments that are not flags
+
+	/**
+	 * Reads options from command line arguments
+	 * Flags start with "--", every other argument is kept as an input
+	 *
+	 * @param args command line arguments
+	 * @return options set by arguments
+	 * @throws IllegalArgumentException if a flag is unknown or its value is invalid
+	 */
+	public static Options parse(String[] args) throws IllegalArgumentException {
+		Options options = new Options();
+		for(String arg : args) {
+			if(!arg.startsWith("--")) {
+				options.inputs.add(arg);
+				continue;
+			}
+			String flag = arg;
+			String value = null;
+			int equals = arg.indexOf('=');
+			if(equals > 0) {
+				flag = arg.substring(0, equals);
+				value = arg.substring(equals + 1);
+			}
+			switch(flag) {
+				case "--parallel":
+					options.parallel = true;
+					if(value != null) {
+						options.threads = parsePositive(flag, value);
+					}
+					break;
+				case "--shared-calls":
+					options.sharedCalls = true;
+					break;
+				case "--shared-compare":
+					options.sharedCompare = true;
+					break;
+				case "--fuse-branches":
+					options.fuseBranches = true;
+					break;
+				case "--fold-constants":
+					options.foldConstants = true;
+					break;
+				case "--direct-moves":
+					options.directMoves = true;
+					break;
+				case "--cache-tos":
+					options.cacheTos = true;
+					break;
+				case "--superinstructions":
+					options.superinstructions = true;
+					break;
+				case "--thread-jumps":
+					options.threadJumps = true;
+					break;
+				case "--tail-calls":
+					options.tailCalls = true;
+					break;
+				case "--compact-locals":
+					options.compactLocals = true;
+					break;
+				case "--goal":
+					if("size".equals(value)) {
+						options.optimizeSize = true;
+					}
+					else if(!"speed".equals(value)) {
+						throw new IllegalArgumentException("Invalid value for " + flag + ": " + value);
+					}
+					break;
+				case "--peephole":
+					options.peephole = true;
+					break;
+				case "--drop-unreachable":
+					options.dropUnreachable = true;
+					break;
+				case "--inline":
+					options.inline = true;
+					if(value != null) {
+						options.inlineLimit = parsePositive(flag, value);
+					}
+					break;
+				case "--hack":
+					options.hack = true;
+					break;
+				case "--cache":
+					options.cache = true;
+					if(value != null) {
+						options.cacheDir = value;
+					}
+					break;
+				case "--watch":
+					options.watch = true;
+					if(value != null) {
+						options.debounce = parsePositive(flag, value);
+					}
+					break;
+				case "--vmb":
+					options.sidecars = true;
+					break;
+				case "--chunked-lex":
+					options.chunkedLex = true;
+					if(value != null) {
+						options.lexThreads = parsePositive(flag, value);
+					}
+					break;
+				case "--batch":
+					options.batch = true;
+					if(value != null) {
+						options.batchThreads = parsePositive(flag, value);
+					}
+					break;
+				case "--manifest":
+					if(value == null || value.isEmpty()) {
+						throw new IllegalArgumentException("Missing value for " + flag);
+					}
+					options.batch = true;
+					options.manifest = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * @return true if commands have to be translated a function at a time rather than one by one
+	 */
+	public boolean translatesBlocks() {
+		return fuseBranches || foldConstants || directMoves || tailCalls || threadJumps || superinstructions;
+	}
+
+	/**
+	 * @return true if every file has to be parsed before any code is generated
+	 */
+	public boolean wholeProgram() {
+		return dropUnreachable || inline;
+	}
+
+	/**
+	 * @return options that change the code generated for a single file, as text
+	 */
+	public String fingerprint() {
+		return "shared-calls=" + sharedCalls + " shared-compare=" + sharedCompare + " fuse-branches=" + fuseBranches
+				+ " fold-constants=" + foldConstants + " direct-moves=" + directMoves + " cache-tos=" + cacheTos
+				+ " superinstructions=" + superinstructions + " thread-jumps=" + threadJumps
+				+ " tail-calls=" + tailCalls + " compact-locals=" + compactLocals + " goal-size=" + optimizeSize;
+	}
+
+	private static int parsePositive(String flag, String value) throws IllegalArgumentException {
+		try {
+			int n = Integer.parseInt(value);
+			if(n > 0) {
+				return n;
+			}
+		} catch(NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("Invalid value for " + flag + ": " + value);
+	}
+}
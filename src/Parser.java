@@ -1,17 +1,38 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Brian Song
  * @description Parses VM program and commands into fields
  */
 public class Parser {
-	private int currLineNum;			//int of current line in file
-	private String[] currCmd;			//Current command to parse
-	private ArrayList<String> instructions = new ArrayList<String>();
-	
+	private static final int BUFFER_SIZE = 1 << 16;	//size of input read buffer in chars
+
+	private Reader in;					//input file, read one buffer at a time
+	private char[] buffer = new char[BUFFER_SIZE];	//chars read from input but not lexed yet
+	private int bufferPos;				//next unread char in buffer
+	private int bufferLimit;			//number of valid chars in buffer
+	private boolean endOfInput;			//true once input has been fully read
+	private boolean empty;				//true if input holds no commands
+	private char[] line = new char[128];	//current line being lexed, grows for long lines
+	private int lineLength;				//number of valid chars in line
+	private int[] tokenStart = new int[3];	//start of each token found in line
+	private int[] tokenEnd = new int[3];	//end (exclusive) of each token found in line
+
+	private SymbolTable symbols;		//interned label and function names
+
+	private Command curr;				//current command, null if invalid
+	private String currArg2Error;		//invalid second argument text, null if valid
+	private boolean hasNext;			//true if a command follows current
+	private Command next;				//command after current, decoded one command ahead
+	private String nextArg2Error;
+
 	//Instruction numbers
 	public static final int C_ARITHMETIC = 1;
 	public static final int C_PUSH = 2;
@@ -22,95 +43,280 @@ public class Parser {
 	public static final int C_FUNCTION = 7;
 	public static final int C_CALL = 8;
 	public static final int C_RETURN = 9;
-	
-	ArrayList<String> arithmeticCommands;	//Arraylist of arithmetic commands
-	
+
+	private static final Opcode[] OPCODES = Opcode.values();
+	private static final Segment[] SEGMENTS = Segment.values();
+
 	public Parser(File input) throws FileNotFoundException, Exception {
-        try {                                                                   
-        	// add all non-whitespace lines to an array list of instructions
-            removeWhitespace(input);
-            initializeArithmeticCommands();
-            currLineNum = 0;
-            if(!instructions.isEmpty()) {
-                currCmd = instructions.get(currLineNum).split("\\s");
-            } else {
-                throw new Exception("No valid instructions.");
-            }
-        } catch (FileNotFoundException e) {
-            throw new FileNotFoundException(e.getMessage());
+		this(input, new SymbolTable());
+	}
+
+	/**
+	 * Creates parser interning label and function names into the given table
+	 * @param input   .vm file to parse
+	 * @param symbols table shared with other parsers
+	 */
+	public Parser(File input, SymbolTable symbols) throws FileNotFoundException, Exception {
+        this(new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8), symbols);
+        if(empty) {
+            throw new Exception("No valid instructions.");
         }
     }
-	
+
 	/**
-	 * Adds all arthmetic/logic commands into arthmethic arraylist
+	 * Creates parser reading commands from any character stream, such as one chunk of a larger file
+	 * Unlike a file, the stream may hold no commands at all
+	 * @param input   chars to parse, closed once fully read
+	 * @param symbols table to intern label and function names in
 	 */
-	private void initializeArithmeticCommands() {
-        arithmeticCommands = new ArrayList<String>();
-
-        arithmeticCommands.add("add");
-        arithmeticCommands.add("sub");
-        arithmeticCommands.add("neg");
-        arithmeticCommands.add("eq");
-        arithmeticCommands.add("gt");
-        arithmeticCommands.add("lt");
-        arithmeticCommands.add("and");
-        arithmeticCommands.add("or");
-        arithmeticCommands.add("not");
+	public Parser(Reader input, SymbolTable symbols) {
+        this.symbols = symbols;
+        // stream instructions from input, keeping one command of lookahead
+        in = input;
+        if(lexNext()) {
+            advance();
+        } else {
+            empty = true;
+        }
     }
-	
+
+    /**
+     * @return true if input held no commands, there is no current command then
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
 	/**
-	 * Removes whitespace in given File
-	 * @param input File to remove whitespace in
-	 * @throws FileNotFoundException If input file does not exist
+	 * Reads the next line of input into the line buffer
+	 * Closes input once end of file is reached
+	 * @return false if no lines are left
+	 * @throws UncheckedIOException if input could not be read
 	 */
-    public void removeWhitespace(File input) throws FileNotFoundException {
-        try {
-            Scanner in = new Scanner(input);
-
-            while(in.hasNext()) {
-            	// reads each line and splits into an array of string tokens
-                String next = in.nextLine();                                
-                String[] line = next.split("\\s");                          
-                String command = "";
-
-                for(int i = 0; i < line.length; i++) {
-                	// ignores empty lines
-                    if(line.length == 0) {                                  
-                        break;
-                    } 
-                    // ignores inline comments
-                    else if(line[i].length() > 1 && line[i].substring(0, 2).equals("//") && i != 0) {
-                        break;                                              
-                    }
-                    // ignores whole-line comments
-                    else if(line[i].length() > 1 && line[i].substring(0, 2).equals("//") && i == 0) {
-                        break;                                             
-                    }
-                    // preserves space between command words
-                    else {
-                        command += line[i];
-                        command += " ";                                     
-                    }
-                }
-
-                if(!(command.equals("") || command.equals(" "))) {
-                    instructions.add(command.trim());
-                }
-            }
+	private boolean readLine() {
+		lineLength = 0;
+		boolean readAny = false;
+		while(true) {
+			if(bufferPos == bufferLimit) {
+				if(endOfInput || !fillBuffer()) {
+					return readAny;
+				}
+			}
+			readAny = true;
+			// copy chars up to the end of line or buffer in one pass
+			int start = bufferPos;
+			int end = start;
+			while(end < bufferLimit && buffer[end] != '\n') {
+				end++;
+			}
+			int count = end - start;
+			if(lineLength + count > line.length) {
+				char[] grown = new char[Math.max(line.length * 2, lineLength + count)];
+				System.arraycopy(line, 0, grown, 0, lineLength);
+				line = grown;
+			}
+			System.arraycopy(buffer, start, line, lineLength, count);
+			lineLength += count;
+			if(end < bufferLimit) {
+				// skip newline
+				bufferPos = end + 1;
+				return true;
+			}
+			bufferPos = end;
+		}
+	}
 
-            in.close();
+	/**
+	 * Refills read buffer from input
+	 * @return false if input has no chars left
+	 */
+	private boolean fillBuffer() {
+		try {
+			int read = in.read(buffer, 0, buffer.length);
+			if(read <= 0) {
+				endOfInput = true;
+				close();
+				return false;
+			}
+			bufferPos = 0;
+			bufferLimit = read;
+			return true;
+		} catch(IOException e) {
+			throw new UncheckedIOException("Could not read input: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Lexes lines from input until one holds a command and decodes it into the lookahead fields
+	 * Whitespace separates words, and // starts a comment running to the end of the line
+	 * @return true if a command was found, false at end of input
+	 */
+	private boolean lexNext() {
+		while(readLine()) {
+			int tokens = 0;
+			int i = 0;
+			while(i < lineLength) {
+				char c = line[i];
+				if(c <= ' ') {
+					i++;
+					continue;
+				}
+				if(c == '/' && i + 1 < lineLength && line[i + 1] == '/') {
+					break;
+				}
+				int start = i;
+				while(i < lineLength && line[i] > ' ' && !(line[i] == '/' && i + 1 < lineLength && line[i + 1] == '/')) {
+					i++;
+				}
+				// words after the second argument are ignored, as is a second argument of label commands
+				if(tokens < 3) {
+					tokenStart[tokens] = start;
+					tokenEnd[tokens] = i;
+				}
+				tokens++;
+			}
+			if(tokens > 0) {
+				decode(Math.min(tokens, 3));
+				hasNext = true;
+				return true;
+			}
+		}
+		hasNext = false;
+		return false;
+	}
+
+	/**
+	 * Decodes the tokens of the current line into the lookahead command
+	 * Opcodes are matched case sensitively, except for non arithmetic keywords which ignore case
+	 * @param tokens number of tokens found in line
+	 */
+	private void decode(int tokens) {
+		next = null;
+		nextArg2Error = null;
+
+		Opcode opcode = null;
+		for(Opcode op : OPCODES) {
+			if(matches(tokenStart[0], tokenEnd[0], op.keyword(), !op.isArithmetic())) {
+				opcode = op;
+				break;
+			}
+		}
+		if(opcode == null) {
+			return;
+		}
+		switch(opcode) {
+			case PUSH:
+			case POP: {
+				if(tokens < 3) {
+					return;
+				}
+				int index = parseArg2(tokenStart[2], tokenEnd[2]);
+				for(Segment segment : SEGMENTS) {
+					if(matches(tokenStart[1], tokenEnd[1], segment.keyword(), false)) {
+						next = Command.of(opcode, segment, index);
+						break;
+					}
+				}
+				break;
+			}
+			case FUNCTION:
+			case CALL:
+				if(tokens < 3) {
+					return;
+				}
+				next = symbolCommand(opcode, parseArg2(tokenStart[2], tokenEnd[2]));
+				break;
+			case LABEL:
+			case GOTO:
+			case IF_GOTO:
+				if(tokens < 2) {
+					return;
+				}
+				next = symbolCommand(opcode, 0);
+				break;
+			default:
+				next = Command.of(opcode);
+		}
+	}
+
+	/**
+	 * Decodes a command naming a label or function in its first argument
+	 * @param opcode command opcode
+	 * @param index  number of locals/arguments, 0 for labels
+	 * @return decoded command with name interned
+	 */
+	private Command symbolCommand(Opcode opcode, int index) {
+		int start = tokenStart[1];
+		int symbol = symbols.intern(line, start, tokenEnd[1] - start);
+		return new Command(opcode, null, index, symbol, symbols.name(symbol));
+	}
+
+	/**
+	 * Parses a non-negative decimal integer in place from the line buffer
+	 * Records the token text if it is not a valid integer
+	 * @param start start of token in line
+	 * @param end   end (exclusive) of token in line
+	 * @return parsed value, 0 if invalid
+	 */
+	private int parseArg2(int start, int end) {
+		long value = 0;
+		for(int i = start; i < end; i++) {
+			char c = line[i];
+			if(c < '0' || c > '9' || value > Integer.MAX_VALUE) {
+				nextArg2Error = new String(line, start, end - start);
+				return 0;
+			}
+			value = value * 10 + (c - '0');
+		}
+		if(value > Integer.MAX_VALUE) {
+			nextArg2Error = new String(line, start, end - start);
+			return 0;
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Compares a token in the line buffer to a keyword without creating a String
+	 * @param start      start of token in line
+	 * @param end        end (exclusive) of token in line
+	 * @param keyword    keyword to compare against
+	 * @param ignoreCase true to compare ignoring case
+	 * @return true if token equals keyword
+	 */
+	private boolean matches(int start, int end, String keyword, boolean ignoreCase) {
+		if(end - start != keyword.length()) {
+			return false;
+		}
+		for(int i = 0; i < keyword.length(); i++) {
+			char c = line[start + i];
+			if(ignoreCase) {
+				c = Character.toLowerCase(c);
+			}
+			if(c != keyword.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-        } catch(FileNotFoundException e) {
-            throw new FileNotFoundException("File not found: " + e.getMessage());
+    /**
+     * Closes input file
+     * Safe to call more than once
+     */
+    public void close() {
+        try {
+            in.close();
+        } catch(IOException e) {
+            // nothing left to read, input is discarded either way
         }
     }
-    
+
     /**
      * Checks if more lines are in input
      * @return True if lines are left, false otherwise
      */
     public boolean hasMoreCommands() {
-        return (currLineNum < instructions.size() - 1);
+        return hasNext;
     }
 
     /**
@@ -119,53 +325,36 @@ public class Parser {
      * Initially not current command
      */
     public void advance() {
-        currLineNum++;
-        currCmd = instructions.get(currLineNum).split("\\s");
+        curr = next;
+        currArg2Error = nextArg2Error;
+        lexNext();
     }
 
     /**
-     * Checks and returns type of command 
-     * @return constant representing type of current command
+     * Returns current command decoded into opcode, segment, index and symbol
+     * @return current command, null if command is invalid
+     * @throws NumberFormatException if command argument is invalid
      */
-    public int commandType() {
-        String type = currCmd[0];
-        if(arithmeticCommands.contains(type)) {
-            return C_ARITHMETIC;
-        }
-
-        if(type.equalsIgnoreCase("push")) {
-            return C_PUSH;
-        }
-
-        if(type.equalsIgnoreCase("pop")) {
-            return C_POP;
-        }
-
-        if(type.equalsIgnoreCase("label")) {
-            return C_LABEL;
-        }
-
-        if(type.equalsIgnoreCase("goto")) {
-            return C_GOTO;
-        }
-
-        if(type.equalsIgnoreCase("if-goto")) {
-            return C_IF;
-        }
-
-        if(type.equalsIgnoreCase("function")) {
-            return C_FUNCTION;
-        }
-
-        if(type.equalsIgnoreCase("call")) {
-            return C_CALL;
+    public Command command() throws NumberFormatException {
+        if(currArg2Error != null) {
+            throw new NumberFormatException("Invalid argument: For input string: \"" + currArg2Error + "\"");
         }
+        return curr;
+    }
 
-        if(type.equalsIgnoreCase("return")) {
-            return C_RETURN;
-        }
+    /**
+     * @return table label and function names are interned in
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
 
-        return 0;
+    /**
+     * Checks and returns type of command
+     * @return constant representing type of current command
+     */
+    public int commandType() {
+        return curr == null ? 0 : curr.opcode().commandType();
     }
 
     /**
@@ -174,11 +363,14 @@ public class Parser {
      * @return first arg of current command
      */
     public String arg1() {
-        if(this.commandType() == C_ARITHMETIC) {
-            return currCmd[0];
+        if(curr.opcode().isArithmetic()) {
+            return curr.opcode().keyword();
+        }
+        else if(curr.segment() != null) {
+            return curr.segment().keyword();
         }
         else {
-            return currCmd[1];
+            return curr.name();
         }
     }
 
@@ -189,10 +381,6 @@ public class Parser {
      * @throws NumberFormatException if command argument is invalid
      */
     public int arg2() throws NumberFormatException {
-        try {
-            return Integer.parseInt(currCmd[2]);
-        } catch (NumberFormatException e) {
-            throw new NumberFormatException("Invalid argument: " + e.getMessage());
-        }
+        return command().index();
     }
 }
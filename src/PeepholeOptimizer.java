@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * @author Brian Song
+ * @description Writer placed between CodeWriter and the output file that removes redundant Hack instructions
+ * Keeps a sliding window of instructions and applies a table of rules each time an instruction is added
+ * Labels end the window, since another jump may land on them, comments pass through and never block a rule
+ */
+public class PeepholeOptimizer extends Writer {
+	private static final int WINDOW = 8;	//instructions kept back for rules to look at
+
+	//Rules, in the order they are tried
+	public static final int INC_DEC = 0;		//M=M+1 M=M-1 (or the other way around) is dropped
+	public static final int INC_POP = 1;		//M=M+1 AM=M-1 becomes A=M
+	public static final int STORE_RELOAD = 2;	//M=D D=M becomes M=D
+	public static final int DEAD_D_STORE = 3;	//D=x, only A loads, D=y without D becomes only A loads, D=y
+	public static final int DEAD_A_LOAD = 4;	//@x @y becomes @y
+	public static final int REDUNDANT_A_LOAD = 5;	//@x when A already holds x is dropped
+	private static final String[] RULES = {"inc-dec", "inc-pop", "store reload", "dead D store",
+			"dead A load", "redundant A load"};
+
+	private final Writer out;				//output sink
+	private final StringBuilder line = new StringBuilder();	//chars of line being received
+	private final ArrayList<String> window = new ArrayList<String>();	//lines not written yet, comments included
+	private int instructions;				//number of instructions in window
+	private String flushedA;				//symbol A holds after the last written instruction, null if unknown
+	private final int[] hits = new int[RULES.length];	//times each rule was applied
+
+	/**
+	 * @param out Writer optimized assembly code is written to
+	 */
+	public PeepholeOptimizer(Writer out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for(int i = off; i < off + len; i++) {
+			char c = cbuf[i];
+			if(c == '\n') {
+				addLine(line.toString());
+				line.setLength(0);
+			}
+			else if(c != '\r') {
+				line.append(c);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes the lines left in the window and the hit counter of each rule as comments, then closes output
+	 */
+	@Override
+	public void close() throws IOException {
+		if(line.length() > 0) {
+			addLine(line.toString());
+			line.setLength(0);
+		}
+		flushWindow(window.size());
+		for(int i = 0; i < RULES.length; i++) {
+			out.write("// peephole " + RULES[i] + ": " + hits[i] + System.lineSeparator());
+		}
+		out.close();
+	}
+
+	/**
+	 * @param rule rule constant
+	 * @return number of times rule was applied
+	 */
+	public int hits(int rule) {
+		return hits[rule];
+	}
+
+	/**
+	 * Prints the number of times each rule was applied
+	 * @param stream stream to print to
+	 */
+	public void printReport(PrintStream stream) {
+		int total = 0;
+		for(int i = 0; i < RULES.length; i++) {
+			stream.println("  " + RULES[i] + ": " + hits[i]);
+			total += hits[i];
+		}
+		stream.println("Peephole rules applied " + total + " times");
+	}
+
+	private void addLine(String text) throws IOException {
+		if(text.startsWith("(")) {
+			// a jump may land on a label, so nothing is known about the registers past it
+			flushWindow(window.size());
+			flushedA = null;
+			out.write(text + System.lineSeparator());
+			return;
+		}
+		if(!isInstruction(text)) {
+			window.add(text);
+			return;
+		}
+		if(text.startsWith("@") && text.substring(1).equals(currentA())) {
+			hits[REDUNDANT_A_LOAD]++;
+			return;
+		}
+		window.add(text);
+		instructions++;
+		while(applyRules()) {
+			// rules may enable each other
+		}
+		if(instructions > WINDOW) {
+			flushWindow(1);
+		}
+	}
+
+	/**
+	 * Tries every rule on the instructions at the end of the window
+	 * @return true if a rule was applied
+	 */
+	private boolean applyRules() {
+		int n = instructions;
+		// the second @SP of incStackPointer followed by decStackPointer is already gone as a redundant A load
+		if(n >= 2 && tail(2).equals("M=M+1") && tail(1).equals("M=M-1")
+				|| n >= 2 && tail(2).equals("M=M-1") && tail(1).equals("M=M+1")) {
+			removeTail(2);
+			hits[INC_DEC]++;
+			return true;
+		}
+		if(n >= 2 && tail(2).equals("M=M+1") && tail(1).equals("AM=M-1")) {
+			removeTail(2);
+			window.add("A=M");
+			instructions++;
+			hits[INC_POP]++;
+			return true;
+		}
+		if(n >= 2 && tail(2).equals("M=D") && tail(1).equals("D=M")) {
+			removeTail(1);
+			hits[STORE_RELOAD]++;
+			return true;
+		}
+		if(n >= 2 && writesOnlyD(tail(1)) && !comp(tail(1)).contains("D")) {
+			// look back over A loads for an earlier store to D that is never read
+			int k = 2;
+			while(k <= n && tail(k).startsWith("@")) {
+				k++;
+			}
+			if(k <= n && writesOnlyD(tail(k))) {
+				removeInstruction(k);
+				hits[DEAD_D_STORE]++;
+				return true;
+			}
+		}
+		if(n >= 2 && tail(2).startsWith("@") && tail(1).startsWith("@")) {
+			removeInstruction(2);
+			hits[DEAD_A_LOAD]++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return symbol A holds after the last instruction in window, null if unknown
+	 */
+	private String currentA() {
+		for(int i = window.size() - 1; i >= 0; i--) {
+			String text = window.get(i);
+			if(!isInstruction(text)) {
+				continue;
+			}
+			if(text.startsWith("@")) {
+				return text.substring(1);
+			}
+			if(dest(text).contains("A")) {
+				return null;
+			}
+		}
+		return flushedA;
+	}
+
+	/**
+	 * @param k position counted from the end of window, 1 for the last instruction
+	 * @return k-th last instruction in window
+	 */
+	private String tail(int k) {
+		return window.get(indexOf(k));
+	}
+
+	private int indexOf(int k) {
+		int i = window.size();
+		while(k > 0) {
+			i--;
+			if(isInstruction(window.get(i))) {
+				k--;
+			}
+		}
+		return i;
+	}
+
+	private void removeInstruction(int k) {
+		window.remove(indexOf(k));
+		instructions--;
+	}
+
+	/**
+	 * Removes the last count instructions, comments between them are kept
+	 */
+	private void removeTail(int count) {
+		for(int i = 0; i < count; i++) {
+			removeInstruction(1);
+		}
+	}
+
+	/**
+	 * Writes lines of window to output until the given number of instructions has been written
+	 * @param count number of instructions to write, lines after the last of them stay in window
+	 */
+	private void flushWindow(int count) throws IOException {
+		while(!window.isEmpty() && (count > 0 || !isInstruction(window.get(0)))) {
+			String text = window.remove(0);
+			if(isInstruction(text)) {
+				count--;
+				instructions--;
+				if(text.startsWith("@")) {
+					flushedA = text.substring(1);
+				}
+				else if(dest(text).contains("A")) {
+					flushedA = null;
+				}
+			}
+			out.write(text + System.lineSeparator());
+		}
+	}
+
+	private static boolean isInstruction(String text) {
+		return !text.isEmpty() && !text.startsWith("//") && !text.startsWith("(");
+	}
+
+	/**
+	 * @return true if instruction only computes into D, without jumping
+	 */
+	private static boolean writesOnlyD(String text) {
+		return text.startsWith("D=") && text.indexOf(';') < 0;
+	}
+
+	private static String dest(String text) {
+		int equals = text.indexOf('=');
+		return equals < 0 ? "" : text.substring(0, equals);
+	}
+
+	private static String comp(String text) {
+		int equals = text.indexOf('=');
+		int semicolon = text.indexOf(';');
+		return text.substring(equals + 1, semicolon < 0 ? text.length() : semicolon);
+	}
+}
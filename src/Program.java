@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Brian Song
+ * @description Parsed commands of every .vm file of a program, kept in memory for whole program optimizations
+ * Files share one symbol table, so a function name has the same symbol id in every file
+ */
+public class Program {
+	private final ArrayList<String> names = new ArrayList<String>();	//file names without extension
+	private final ArrayList<List<Command>> files = new ArrayList<List<Command>>();	//commands of each file
+	private final SymbolTable symbols = new SymbolTable();	//names shared by all files
+	private Map<String, Inliner.Candidate> inlined = Collections.emptyMap();	//functions inlined at their call sites
+
+	/**
+	 * Parses every file of a program
+	 * @param input .vm files of program, in translation order
+	 * @return parsed program, null if a file contains an invalid instruction
+	 * @throws Exception if a file could not be read or holds no instructions
+	 */
+	public static Program parse(List<File> input) throws Exception {
+		return parse(input, new Options());
+	}
+
+	/**
+	 * Parses every file of a program
+	 * @param input   .vm files of program, in translation order
+	 * @param options options selecting how files are read
+	 * @return parsed program, null if a file contains an invalid instruction
+	 * @throws Exception if a file could not be read or holds no instructions
+	 */
+	public static Program parse(List<File> input, Options options) throws Exception {
+		Program program = new Program();
+		for(File f : input) {
+			List<Command> cmds = parseFile(f, program.symbols, options);
+			if(cmds == null) {
+				return null;
+			}
+			String name = f.getName();
+			program.names.add(name.substring(0, name.indexOf('.')));
+			program.files.add(cmds);
+		}
+		return program;
+	}
+
+	/**
+	 * Parses every command of a .vm file
+	 * @param f       .vm file to parse
+	 * @param symbols table to intern label and function names in
+	 * @return commands of file, null if file contains an invalid instruction
+	 * @throws Exception if file could not be read or holds no instructions
+	 */
+	public static List<Command> parseFile(File f, SymbolTable symbols) throws Exception {
+		ArrayList<Command> cmds = new ArrayList<Command>();
+		Parser p = new Parser(f, symbols);
+		while(true) {
+			Command cmd = p.command();
+			if(cmd == null) {
+				System.out.println(f + " contains an invalid instruction.");
+				p.close();
+				return null;
+			}
+			cmds.add(cmd);
+			if(p.hasMoreCommands()) {
+				p.advance();
+			} else break;
+		}
+		return cmds;
+	}
+
+	/**
+	 * Parses every command of a .vm file, or reads them from its .vmb sidecar
+	 * With sidecars, an up to date sidecar is read instead of parsing, and one is written after parsing
+	 * With chunked lexing, large files are lexed on several threads
+	 * @param f       .vm file to parse
+	 * @param symbols table to intern label and function names in
+	 * @param options options selecting how the file is read
+	 * @return commands of file, null if file contains an invalid instruction
+	 * @throws Exception if file could not be read or holds no instructions
+	 */
+	public static List<Command> parseFile(File f, SymbolTable symbols, Options options) throws Exception {
+		List<Command> cmds = options.sidecars ? VMBinary.read(f, symbols) : null;
+		if(cmds != null) {
+			return cmds;
+		}
+		// taken before parsing, so a sidecar of a file saved while it was parsed is out of date
+		long length = f.length();
+		long lastModified = f.lastModified();
+		cmds = options.chunkedLex ? ChunkedParser.parse(f, symbols, options.lexThreads) : parseFile(f, symbols);
+		if(options.sidecars && cmds != null) {
+			try {
+				VMBinary.write(f, length, lastModified, cmds);
+			} catch(IOException e) {
+				System.out.println("Could not write " + VMBinary.sidecar(f) + ": " + e.getMessage());
+			}
+		}
+		return cmds;
+	}
+
+	/**
+	 * @return number of files in program
+	 */
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * @param i index of file
+	 * @return name of file without extension, used as prefix of its static variables
+	 */
+	public String name(int i) {
+		return names.get(i);
+	}
+
+	/**
+	 * @param i index of file
+	 * @return commands of file
+	 */
+	public List<Command> commands(int i) {
+		return files.get(i);
+	}
+
+	/**
+	 * @return table label and function names of program are interned in
+	 */
+	public SymbolTable symbols() {
+		return symbols;
+	}
+
+	/**
+	 * @return functions whose calls are replaced by their body, by name
+	 */
+	public Map<String, Inliner.Candidate> inlined() {
+		return inlined;
+	}
+
+	/**
+	 * @param inlined functions whose calls are replaced by their body, by name
+	 */
+	public void setInlined(Map<String, Inliner.Candidate> inlined) {
+		this.inlined = inlined;
+	}
+
+	/**
+	 * Removes every function not in the given set, commands ahead of the first function of a file are kept
+	 * @param keep names of functions to keep
+	 * @return number of commands removed
+	 */
+	public int retainFunctions(Set<String> keep) {
+		int removed = 0;
+		for(int i = 0; i < files.size(); i++) {
+			List<Command> cmds = files.get(i);
+			ArrayList<Command> kept = new ArrayList<Command>(cmds.size());
+			boolean keeping = true;
+			for(Command cmd : cmds) {
+				if(cmd.opcode() == Opcode.FUNCTION) {
+					keeping = keep.contains(cmd.name());
+				}
+				if(keeping) {
+					kept.add(cmd);
+				}
+			}
+			removed += cmds.size() - kept.size();
+			files.set(i, kept);
+		}
+		return removed;
+	}
+}
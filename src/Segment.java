@@ -0,0 +1,58 @@
+/**
+ * @author Brian Song
+ * @description VM memory segments and the Hack registers they are based on
+ */
+public enum Segment {
+	CONSTANT("constant", null),
+	LOCAL("local", "LCL"),
+	ARGUMENT("argument", "ARG"),
+	THIS("this", "THIS"),
+	THAT("that", "THAT"),
+	POINTER("pointer", null),
+	TEMP("temp", null),
+	STATIC("static", null);
+
+	private final String keyword;	//VM keyword of segment
+	private final String base;		//Hack register holding segment base address, null if fixed
+
+	private Segment(String keyword, String base) {
+		this.keyword = keyword;
+		this.base = base;
+	}
+
+	/**
+	 * @return VM keyword of segment
+	 */
+	public String keyword() {
+		return keyword;
+	}
+
+	/**
+	 * @return Hack register holding base address of segment, null if segment is not pointer based
+	 */
+	public String base() {
+		return base;
+	}
+
+	/**
+	 * @return true if segment is addressed through a base pointer (local, argument, this, that)
+	 */
+	public boolean isIndirect() {
+		return base != null;
+	}
+
+	/**
+	 * Returns fixed RAM register of pointer/temp entry
+	 * @param index index within segment
+	 * @return RAM address, or -1 if segment is not at a fixed address
+	 */
+	public int address(int index) {
+		if(this == POINTER) {
+			return 3 + index;
+		}
+		else if(this == TEMP) {
+			return 5 + index;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,201 @@
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * @author Brian Song
+ * @description Ranks straight-line command sequences of a VM corpus as candidates for superinstructions
+ * Sequences of 2 to 4 push, pop and arithmetic commands are counted with indices abstracted, so
+ * push local 3, push constant 1, add, pop local 3 counts as push local i / push constant 1 / add / pop local i
+ * Each sequence is translated with the given flags, and what a template could save is estimated from the
+ * SP traffic left inside it: only the values it takes from or leaves on the stack need SP
+ * For each sequence, prints the estimated total saving, number of occurrences, instructions per occurrence
+ * with the given flags, and instructions per occurrence those flags already save
+ *
+ * Usage: java SequenceAnalyzer file.vm|directory [top] [translator flags...]
+ */
+public class SequenceAnalyzer {
+	private static final int MIN_LENGTH = 2;
+	private static final int MAX_LENGTH = 4;
+	private static final String[] VARIABLES = {"i", "j", "k", "l"};
+
+	/**
+	 * Occurrences of one abstracted sequence
+	 */
+	private static class Sequence {
+		final String key;			//sequence with indices abstracted
+		final List<Command> example;	//first occurrence, used to measure code size
+		int count;					//number of occurrences
+		int base;					//instructions generated for one occurrence without optimizations
+		int size;					//instructions generated for one occurrence with the given flags
+		int saving;					//estimated instructions a template saves per occurrence
+
+		Sequence(String key, List<Command> example) {
+			this.key = key;
+			this.example = example;
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			Options options = Options.parse(args);
+			if(options.inputs.isEmpty()) {
+				System.out.println("Usage: java SequenceAnalyzer file.vm|directory [top] [translator flags...]");
+				return;
+			}
+			int top = options.inputs.size() > 1 ? Integer.parseInt(options.inputs.get(1)) : 20;
+			ArrayList<File> files = new ArrayList<File>();
+			VMTranslator.getFiles(new File(options.inputs.get(0)), files);
+			Program program = Program.parse(files);
+			if(program == null) {
+				return;
+			}
+			List<Sequence> ranked = analyze(program, options);
+			System.out.printf("%5s %8s %8s %6s %6s  %s%n", "rank", "saving", "count", "size", "saved", "sequence");
+			for(int i = 0; i < Math.min(top, ranked.size()); i++) {
+				Sequence s = ranked.get(i);
+				System.out.printf("%5d %8d %8d %6d %6d  %s%n", i + 1, (long) s.count * s.saving, s.count, s.size,
+						s.base - s.size, s.key);
+			}
+		} catch(Exception e) {
+			System.out.println("Error: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Counts every straight-line sequence of the program and ranks them by estimated total saving
+	 * @param program parsed program
+	 * @param options options sequences are translated with
+	 * @return sequences, largest estimated saving first
+	 */
+	private static List<Sequence> analyze(Program program, Options options) {
+		LinkedHashMap<String, Sequence> sequences = new LinkedHashMap<String, Sequence>();
+		for(int f = 0; f < program.size(); f++) {
+			List<Command> cmds = program.commands(f);
+			for(int i = 0; i < cmds.size(); i++) {
+				for(int length = MIN_LENGTH; length <= MAX_LENGTH && i + length <= cmds.size(); length++) {
+					if(!isStraightLine(cmds.get(i)) || !isStraightLine(cmds.get(i + length - 1))) {
+						break;
+					}
+					List<Command> window = cmds.subList(i, i + length);
+					String key = key(window);
+					Sequence s = sequences.get(key);
+					if(s == null) {
+						s = new Sequence(key, new ArrayList<Command>(window));
+						sequences.put(key, s);
+					}
+					s.count++;
+				}
+			}
+		}
+		ArrayList<Sequence> ranked = new ArrayList<Sequence>(sequences.values());
+		for(Sequence s : ranked) {
+			measure(s, options);
+		}
+		Collections.sort(ranked, (a, b) -> Long.compare((long) b.count * b.saving, (long) a.count * a.saving));
+		return ranked;
+	}
+
+	private static boolean isStraightLine(Command cmd) {
+		Opcode op = cmd.opcode();
+		return op == Opcode.PUSH || op == Opcode.POP || op.isArithmetic();
+	}
+
+	/**
+	 * @return sequence as text, with segment indices replaced by variables and constants other than 0 and 1 by c
+	 */
+	private static String key(List<Command> window) {
+		HashMap<String, String> variables = new HashMap<String, String>();
+		StringBuilder key = new StringBuilder();
+		for(Command cmd : window) {
+			if(key.length() > 0) {
+				key.append(" / ");
+			}
+			if(cmd.segment() == null) {
+				key.append(cmd.opcode().keyword());
+				continue;
+			}
+			String index;
+			if(cmd.segment() == Segment.CONSTANT) {
+				index = cmd.index() == 0 || cmd.index() == 1 ? String.valueOf(cmd.index()) : "c";
+			}
+			else if(cmd.segment() == Segment.POINTER) {
+				index = String.valueOf(cmd.index());
+			}
+			else {
+				String entry = cmd.segment().keyword() + " " + cmd.index();
+				index = variables.get(entry);
+				if(index == null) {
+					index = VARIABLES[variables.size()];
+					variables.put(entry, index);
+				}
+			}
+			key.append(cmd.opcode().keyword()).append(' ').append(cmd.segment().keyword()).append(' ').append(index);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Translates the example of a sequence and estimates what a template could save
+	 * Each @SP costs about two instructions, a template keeps one for the values it takes from
+	 * below the sequence and one for the values it leaves, the rest is traffic between its own commands
+	 */
+	private static void measure(Sequence s, Options options) {
+		s.base = count(translate(s.example, new Options()), null);
+		String code = translate(s.example, options);
+		s.size = count(code, null);
+		int spLoads = count(code, "@SP");
+		int depth = 0;
+		int lowest = 0;
+		for(Command cmd : s.example) {
+			Opcode op = cmd.opcode();
+			depth -= op.isBinary() ? 2 : op == Opcode.PUSH ? 0 : 1;
+			lowest = Math.min(lowest, depth);
+			depth += op == Opcode.POP ? 0 : 1;
+		}
+		int boundary = (lowest < 0 ? 1 : 0) + (depth > 0 ? 1 : 0);
+		s.saving = Math.max(0, 2 * (spLoads - boundary));
+	}
+
+	/**
+	 * @return assembly code of commands, translated as a block if options translate blocks
+	 */
+	private static String translate(List<Command> cmds, Options options) {
+		StringWriter buffer = new StringWriter();
+		CodeWriter cw = new CodeWriter(buffer);
+		cw.setOptions(options);
+		cw.setFileName("Analyzer");
+		if(options.translatesBlocks()) {
+			cw.writeCommands(options.foldConstants ? ConstantFolder.fold(cmds) : cmds);
+		}
+		else {
+			for(Command cmd : cmds) {
+				cw.writeCommand(cmd);
+			}
+		}
+		cw.close();
+		return buffer.toString();
+	}
+
+	/**
+	 * @param code        assembly code
+	 * @param instruction instruction to count, null to count every instruction
+	 * @return number of matching instructions in code
+	 */
+	private static int count(String code, String instruction) {
+		int count = 0;
+		for(String line : code.split("\n")) {
+			line = line.trim();
+			if(!line.isEmpty() && !line.startsWith("//") && !line.startsWith("(")
+					&& (instruction == null || line.equals(instruction))) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
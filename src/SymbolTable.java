@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * @author Brian Song
+ * @description Interns label and function names to dense int ids
+ * Names can be looked up straight from a char buffer, so known names cost no allocation
+ * Not thread safe, use one table per thread
+ */
+public class SymbolTable {
+	private String[] names = new String[64];	//names by id
+	private int[] slots = new int[128];		//open addressed hash table of id + 1, 0 if empty
+	private int size;						//number of interned names
+
+	/**
+	 * Interns name held in a char buffer
+	 * @param buf    buffer holding name
+	 * @param start  start of name in buffer
+	 * @param length length of name
+	 * @return id of name
+	 */
+	public int intern(char[] buf, int start, int length) {
+		int hash = 0;
+		for(int i = 0; i < length; i++) {
+			hash = 31 * hash + buf[start + i];
+		}
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while(slots[slot] != 0) {
+			String name = names[slots[slot] - 1];
+			if(equals(name, buf, start, length)) {
+				return slots[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return add(new String(buf, start, length), slot);
+	}
+
+	/**
+	 * Interns name
+	 * @param name label or function name
+	 * @return id of name
+	 */
+	public int intern(String name) {
+		int mask = slots.length - 1;
+		int slot = mix(name.hashCode()) & mask;
+		while(slots[slot] != 0) {
+			if(names[slots[slot] - 1].equals(name)) {
+				return slots[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return add(name, slot);
+	}
+
+	/**
+	 * @param id id returned by intern
+	 * @return name interned under id
+	 */
+	public String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return number of interned names, ids range from 0 to size - 1
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int add(String name, int slot) {
+		if(size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+		}
+		names[size] = name;
+		slots[slot] = ++size;
+		// keep table at most half full
+		if(size * 2 > slots.length) {
+			rehash();
+		}
+		return size - 1;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for(int id = 0; id < size; id++) {
+			int slot = mix(names[id].hashCode()) & mask;
+			while(slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(String name, char[] buf, int start, int length) {
+		if(name.length() != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(name.charAt(i) != buf[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
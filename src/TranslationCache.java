@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Brian Song
+ * @description Store of the translated assembly code of single .vm files, kept on disk
+ * A fragment is stored under a SHA-256 hash of the file name, its contents and the options that change
+ * generated code, so a changed file or option is simply a miss and entries never have to be invalidated
+ * Fragments can be reused as is because CodeWriter numbers and prefixes the labels of every file on its own
+ * The latest fragment of each file is also kept in memory, for processes that translate the same program repeatedly
+ * Files in memory are told apart by their canonical path, since files of the same name may sit in different directories
+ */
+public class TranslationCache {
+	private static final String VERSION = "1";	// changes whenever CodeWriter output for the same input changes
+	private static final String EXTENSION = ".asm";
+
+	private final File dir;					// directory holding one file per fragment, null to keep fragments in memory only
+	private final ConcurrentHashMap<String, String[]> latest = new ConcurrentHashMap<String, String[]>(); // key and fragment by canonical path of file
+	private final String fingerprint;		// options that change generated code
+	private final AtomicInteger hits = new AtomicInteger();		// fragments read from cache
+	private final AtomicInteger misses = new AtomicInteger();	// fragments translated and stored
+
+	/**
+	 * @param dir     directory to keep fragments in, created when the first fragment is stored, null for memory only
+	 * @param options options fragments are translated with
+	 */
+	public TranslationCache(File dir, Options options) {
+		this.dir = dir;
+		this.fingerprint = options.fingerprint();
+	}
+
+	/**
+	 * @param name   name of file without extension, prefix of its static variables and labels
+	 * @param source contents of .vm file
+	 * @return key of the fragment translated from source
+	 */
+	public String key(String name, byte[] source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((VERSION + "\n" + fingerprint + "\n" + name + "\n").getBytes(StandardCharsets.UTF_8));
+			byte[] hash = digest.digest(source);
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for(byte b : hash) {
+				key.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		} catch(NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param source .vm file
+	 * @param key    key of fragment
+	 * @return stored fragment, null if there is none
+	 */
+	public String get(File source, String key) {
+		String path = path(source);
+		String[] entry = latest.get(path);
+		if(entry != null && entry[0].equals(key)) {
+			hits.incrementAndGet();
+			return entry[1];
+		}
+		if(dir != null) {
+			try {
+				String fragment = new String(Files.readAllBytes(new File(dir, key + EXTENSION).toPath()),
+						StandardCharsets.UTF_8);
+				latest.put(path, new String[] {key, fragment});
+				hits.incrementAndGet();
+				return fragment;
+			} catch(IOException e) {
+				// not stored yet
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores a fragment, a fragment that cannot be written is only reported, translation goes on without it
+	 * The fragment is written to a temporary file first, so another run never reads half of it
+	 * @param source   .vm file fragment was translated from
+	 * @param key      key of fragment
+	 * @param fragment assembly code of one file
+	 */
+	public void put(File source, String key, String fragment) {
+		latest.put(path(source), new String[] {key, fragment});
+		if(dir == null) {
+			return;
+		}
+		File entry = new File(dir, key + EXTENSION);
+		try {
+			Files.createDirectories(dir.toPath());
+			File temp = File.createTempFile(key, ".tmp", dir);
+			Files.write(temp.toPath(), fragment.getBytes(StandardCharsets.UTF_8));
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException e) {
+			System.out.println("Could not cache " + entry + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param source .vm file
+	 * @return canonical path of file, its absolute path if that cannot be resolved
+	 */
+	private static String path(File source) {
+		try {
+			return source.getCanonicalPath();
+		} catch(IOException e) {
+			return source.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * @return number of fragments read from cache
+	 */
+	public int hits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of fragments that had to be translated
+	 */
+	public int misses() {
+		return misses.get();
+	}
+}
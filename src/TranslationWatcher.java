@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Brian Song
+ * @description Keeps the translator running and translates its input again whenever a .vm file is created,
+ * modified or deleted. Events arriving in a burst, such as an editor saving several files, are collected until
+ * none arrived for the debounce interval and then cause one translation. Translated files are kept in memory,
+ * so only the changed files are parsed and translated again, and the latency of every rebuild is logged
+ */
+public class TranslationWatcher {
+	public static final int DEFAULT_DEBOUNCE = 100;	// milliseconds without events before translating
+
+	private final File input;				// .vm file or directory translated
+	private final Options options;			// options of translation
+	private final TranslationCache cache;	// translated files kept across rebuilds
+	private final WatchService service;
+	private final HashMap<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();	// watched directory of each key
+
+	private TranslationWatcher(File input, Options options) throws IOException {
+		this.input = input.getAbsoluteFile();
+		this.options = options;
+		File dir = options.cache ? VMTranslator.cacheDir(VMTranslator.outputFile(this.input, options), options) : null;
+		this.cache = new TranslationCache(dir, options);
+		this.service = FileSystems.getDefault().newWatchService();
+		if(this.input.isDirectory()) {
+			register(this.input);
+		}
+		else {
+			register(this.input.getParentFile());
+		}
+	}
+
+	/**
+	 * Translates input, then translates it again after every change until the process is stopped
+	 * @param input   .vm file or directory to translate
+	 * @param options options of translation
+	 * @throws Exception if input could not be watched
+	 */
+	public static void watch(File input, Options options) throws Exception {
+		TranslationWatcher watcher = new TranslationWatcher(input, options);
+		watcher.rebuild(System.nanoTime(), new TreeSet<String>());
+		System.out.println("Watching " + watcher.input + " for changes, stop with Ctrl+C");
+		watcher.run();
+	}
+
+	private void run() throws InterruptedException {
+		while(true) {
+			WatchKey key = service.take();
+			long first = System.nanoTime();
+			TreeSet<String> changed = new TreeSet<String>();
+			collect(key, changed);
+			// wait until the burst is over
+			while((key = service.poll(options.debounce, TimeUnit.MILLISECONDS)) != null) {
+				collect(key, changed);
+			}
+			if(!changed.isEmpty()) {
+				rebuild(first, changed);
+			}
+		}
+	}
+
+	/**
+	 * Translates input and logs how long it took
+	 * @param first   System.nanoTime() of the first change that caused the rebuild
+	 * @param changed names of changed files
+	 */
+	private void rebuild(long first, TreeSet<String> changed) {
+		long start = System.nanoTime();
+		try {
+			File output = VMTranslator.translate(input, options, cache);
+			long end = System.nanoTime();
+			if(output == null) {
+				System.out.println("Translation failed, waiting for the next change");
+				return;
+			}
+			System.out.printf("Wrote %s in %.1f ms, %.1f ms after first change%s%n", output.getName(),
+					(end - start) / 1e6, (end - first) / 1e6,
+					changed.isEmpty() ? "" : " (changed: " + String.join(", ", changed) + ")");
+		} catch(Exception e) {
+			System.out.println("Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Adds the .vm files named by the events of a key to changed, and watches directories created under input
+	 * @param key     signalled key
+	 * @param changed names of changed files
+	 */
+	private void collect(WatchKey key, TreeSet<String> changed) {
+		Path dir = dirs.get(key);
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				// events were lost, so anything may have changed
+				changed.add("(unknown)");
+				continue;
+			}
+			File f = dir.resolve((Path) event.context()).toFile();
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && f.isDirectory() && input.isDirectory()) {
+				try {
+					register(f);
+					// files may have been written before the directory was watched
+					ArrayList<File> files = new ArrayList<File>();
+					VMTranslator.getFiles(f, files);
+					for(File source : files) {
+						changed.add(source.getName());
+					}
+				} catch(IOException e) {
+					System.out.println("Could not watch " + f + ": " + e.getMessage());
+				}
+			}
+			else if(isSource(f)) {
+				changed.add(f.getName());
+			}
+		}
+		if(!key.reset()) {
+			dirs.remove(key);
+		}
+	}
+
+	/**
+	 * @return true if f is a .vm file that is part of input
+	 */
+	private boolean isSource(File f) {
+		if(input.isFile() || !input.exists()) {
+			return f.equals(input);
+		}
+		String name = f.getName();
+		return name.indexOf('.') > 0 && name.substring(name.indexOf('.') + 1).equalsIgnoreCase("vm");
+	}
+
+	/**
+	 * Watches a directory and, like VMTranslator.getFiles, every directory under it
+	 */
+	private void register(File dir) throws IOException {
+		WatchKey key = dir.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		dirs.put(key, dir.toPath());
+		if(dir.equals(input) || input.isDirectory()) {
+			File[] inner = dir.listFiles();
+			if(inner != null) {
+				for(File f : inner) {
+					if(f.isDirectory()) {
+						register(f);
+					}
+				}
+			}
+		}
+	}
+}
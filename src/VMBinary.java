@@ -0,0 +1,216 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Brian Song
+ * @description Compact binary form of the parsed commands of a .vm file, kept as a .vmb sidecar next to it
+ * Layout, every number an unsigned LEB128 varint unless noted:
+ *   "VMB" and a format version byte, length and modification time of the .vm file (8 bytes each),
+ *   number of names followed by each name as its UTF-8 length and bytes,
+ *   number of commands followed by each command as its opcode byte and operands:
+ *   push/pop a segment byte and the index, label/goto/if-goto a name id, function/call a name id and the count
+ * A sidecar is read straight from a memory-mapped buffer, without decoding text or copying the file
+ */
+public class VMBinary {
+	private static final byte[] MAGIC = {'V', 'M', 'B', 1};
+	public static final String EXTENSION = ".vmb";
+
+	private static final Opcode[] OPCODES = Opcode.values();
+	private static final Segment[] SEGMENTS = Segment.values();
+
+	/**
+	 * @param source .vm file
+	 * @return .vmb sidecar of file
+	 */
+	public static File sidecar(File source) {
+		String name = source.getName();
+		return new File(source.getParentFile(), name.substring(0, name.indexOf('.')) + EXTENSION);
+	}
+
+	/**
+	 * Reads the commands of a .vm file from its sidecar
+	 * @param source  .vm file
+	 * @param symbols table to intern label and function names in
+	 * @return commands of file, null if there is no sidecar, it is out of date or it is damaged
+	 */
+	public static List<Command> read(File source, SymbolTable symbols) {
+		File sidecar = sidecar(source);
+		if(!sidecar.isFile()) {
+			return null;
+		}
+		try {
+			FileChannel channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ);
+			ByteBuffer in;
+			try {
+				in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				// the mapping stays valid after the channel is closed
+				channel.close();
+			}
+			for(byte b : MAGIC) {
+				if(in.get() != b) {
+					return null;
+				}
+			}
+			if(in.getLong() != source.length() || in.getLong() != source.lastModified()) {
+				return null;
+			}
+			int nameCount = readCount(in);
+			if(nameCount < 0) {
+				return null;
+			}
+			int[] ids = new int[nameCount];
+			String[] names = new String[ids.length];
+			for(int i = 0; i < ids.length; i++) {
+				int length = readCount(in);
+				if(length < 0) {
+					return null;
+				}
+				byte[] bytes = new byte[length];
+				in.get(bytes);
+				ids[i] = symbols.intern(new String(bytes, StandardCharsets.UTF_8));
+				names[i] = symbols.name(ids[i]);
+			}
+			int count = readCount(in);
+			if(count < 0) {
+				return null;
+			}
+			ArrayList<Command> cmds = new ArrayList<Command>(count);
+			for(int i = 0; i < count; i++) {
+				Opcode opcode = OPCODES[in.get()];
+				switch(opcode) {
+					case PUSH:
+					case POP:
+						Segment segment = SEGMENTS[in.get()];
+						cmds.add(Command.of(opcode, segment, readVarint(in)));
+						break;
+					case LABEL:
+					case GOTO:
+					case IF_GOTO: {
+						int name = readVarint(in);
+						cmds.add(new Command(opcode, null, 0, ids[name], names[name]));
+						break;
+					}
+					case FUNCTION:
+					case CALL: {
+						int name = readVarint(in);
+						cmds.add(new Command(opcode, null, readVarint(in), ids[name], names[name]));
+						break;
+					}
+					default:
+						cmds.add(Command.of(opcode));
+				}
+			}
+			return cmds;
+		} catch(IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+			// damaged or unreadable, the .vm file is parsed instead
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the commands of a .vm file to its sidecar
+	 * The sidecar is written to a temporary file first, so a reader never maps half of it
+	 * @param source       .vm file commands were parsed from
+	 * @param length       length of file before it was parsed
+	 * @param lastModified modification time of file before it was parsed
+	 * @param cmds         commands of file
+	 * @throws IOException if sidecar could not be written
+	 */
+	public static void write(File source, long length, long lastModified, List<Command> cmds) throws IOException {
+		ArrayList<String> names = new ArrayList<String>();
+		SymbolTable ids = new SymbolTable();
+		for(Command cmd : cmds) {
+			if(cmd.name() != null && ids.intern(cmd.name()) == names.size()) {
+				names.add(cmd.name());
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(16 + cmds.size() * 3);
+		out.write(MAGIC);
+		writeLong(out, length);
+		writeLong(out, lastModified);
+		writeVarint(out, names.size());
+		for(String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		}
+		writeVarint(out, cmds.size());
+		for(Command cmd : cmds) {
+			out.write(cmd.opcode().ordinal());
+			switch(cmd.opcode()) {
+				case PUSH:
+				case POP:
+					out.write(cmd.segment().ordinal());
+					writeVarint(out, cmd.index());
+					break;
+				case LABEL:
+				case GOTO:
+				case IF_GOTO:
+					writeVarint(out, ids.intern(cmd.name()));
+					break;
+				case FUNCTION:
+				case CALL:
+					writeVarint(out, ids.intern(cmd.name()));
+					writeVarint(out, cmd.index());
+					break;
+				default:
+					break;
+			}
+		}
+		File sidecar = sidecar(source);
+		File temp = File.createTempFile(sidecar.getName(), ".tmp", source.getAbsoluteFile().getParentFile());
+		try {
+			Files.write(temp.toPath(), out.toByteArray());
+			Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Reads a count of names or commands, or the length of a name
+	 * Each of them takes at least one byte, so a larger count than bytes remaining cannot be right
+	 * @return count, -1 if it is negative or larger than the bytes remaining
+	 */
+	private static int readCount(ByteBuffer in) {
+		int count = readVarint(in);
+		return count < 0 || count > in.remaining() ? -1 : count;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while((value & ~0x7F) != 0) {
+			out.write(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static void writeLong(ByteArrayOutputStream out, long value) {
+		for(int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (value >> shift));
+		}
+	}
+}
@@ -1,7 +1,21 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Brian Song
@@ -13,7 +27,7 @@ public class VMTranslator {
 	 * @param list of .vm files gotten from input
 	 * @throws FileNotFoundException if file is not found
 	 */
-	private static void getFiles(File input, ArrayList<File> files) throws FileNotFoundException {
+	static void getFiles(File input, ArrayList<File> files) throws FileNotFoundException {
         if(input.isFile()) {
             // check for .vm extension before adding to list of files
             String filename = input.getName();
@@ -27,6 +41,8 @@ public class VMTranslator {
         } 
         else if(input.isDirectory()) {
             File[] innerFiles = input.listFiles();
+            // sort so output does not depend on directory listing order
+            Arrays.sort(innerFiles);
             for(File f : innerFiles) {
                 getFiles(f, files);
             }
@@ -37,107 +53,412 @@ public class VMTranslator {
     }
 	
 	/**
-	 * !!!IMPORTANT!!!
-	 * Make sure you set console to false if not using console to find files
-	 * ie: resources/BasicTest
+	 * Translates every command of a .vm file with the given CodeWriter
+	 * Commands are written as they are parsed, when options translate blocks one function at a time
+	 * @param f       .vm file to translate
+	 * @param source  contents of file already read, null to read the file
+	 * @param cw      CodeWriter to write assembly code with
+	 * @param options options of translation
+	 * @return false if file contains an invalid instruction
+	 * @throws Exception if file could not be read or holds no instructions
+	 */
+	private static boolean translateFile(File f, byte[] source, CodeWriter cw, Options options) throws Exception {
+        String name = f.getName();
+        name = name.substring(0, name.indexOf('.'));
+        if(source == null && (options.sidecars || options.chunkedLex)) {
+            // these read the whole file into a command list
+            List<Command> cmds = Program.parseFile(f, new SymbolTable(), options);
+            if(cmds == null) {
+                return false;
+            }
+            writeFile(name, cmds, cw, options);
+            return true;
+        }
+        cw.setFileName(name);
+
+        // commands are streamed, only the current function is held when options translate blocks
+        boolean blocks = options.translatesBlocks();
+        ArrayList<Command> block = new ArrayList<Command>();
+        Parser p;
+        if(source == null) {
+            p = new Parser(f);
+        }
+        else {
+            p = new Parser(new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8), new SymbolTable());
+            if(p.isEmpty()) {
+                throw new Exception("No valid instructions.");
+            }
+        }
+        while(true) {
+            // each line is decoded once, CodeWriter dispatches on its opcode
+            Command cmd = p.command();
+            if(cmd == null) {
+                System.out.println(f + " contains an invalid instruction.");
+                p.close();
+                return false;
+            }
+            if(!blocks) {
+                cw.writeCommand(cmd);
+            }
+            else {
+                if(cmd.opcode() == Opcode.FUNCTION && !block.isEmpty()) {
+                    writeBlock(block, cw, options);
+                    block.clear();
+                }
+                block.add(cmd);
+            }
+
+            if(p.hasMoreCommands()) {
+                p.advance();
+            } else break;
+        }
+        if(!block.isEmpty()) {
+            writeBlock(block, cw, options);
+        }
+        return true;
+    }
+
+	/**
+	 * Translates a .vm file on its own into a fragment of assembly code, taken from cache if the file did not change
+	 * @param f       .vm file to translate
+	 * @param options options of translation
+	 * @param cache   cache of translated files, null to always translate
+	 * @return assembly code of file, null if file contains an invalid instruction
+	 * @throws Exception if file could not be read or holds no instructions
+	 */
+	private static String translateFragment(File f, Options options, TranslationCache cache) throws Exception {
+        String name = f.getName();
+        name = name.substring(0, name.indexOf('.'));
+        String key = null;
+        byte[] source = null;
+        if(cache != null) {
+            // the bytes hashed are the bytes translated, an edit after reading them cannot end up under this key
+            source = Files.readAllBytes(f.toPath());
+            key = cache.key(name, source);
+            String fragment = cache.get(f, key);
+            if(fragment != null) {
+                return fragment;
+            }
+        }
+        StringWriter buffer = new StringWriter();
+        CodeWriter fileWriter = new CodeWriter(buffer);
+        fileWriter.setOptions(options);
+        boolean valid = translateFile(f, source, fileWriter, options);
+        fileWriter.close();
+        if(!valid) {
+            return null;
+        }
+        if(cache != null) {
+            cache.put(f, key, buffer.toString());
+        }
+        return buffer.toString();
+    }
+
+	/**
+	 * Translates the parsed commands of a file with the given CodeWriter
+	 * When options translate blocks, commands are handed over one function at a time
+	 * @param name    name of file without extension
+	 * @param cmds    commands of file
+	 * @param cw      CodeWriter to write assembly code with
+	 * @param options options of translation
+	 */
+	static void writeFile(String name, List<Command> cmds, CodeWriter cw, Options options) {
+        cw.setFileName(name);
+        if(!options.translatesBlocks()) {
+            // each line is decoded once, CodeWriter dispatches on its opcode
+            for(Command cmd : cmds) {
+                cw.writeCommand(cmd);
+            }
+            return;
+        }
+        int start = 0;
+        for(int i = 1; i <= cmds.size(); i++) {
+            if(i == cmds.size() || cmds.get(i).opcode() == Opcode.FUNCTION) {
+                writeBlock(cmds.subList(start, i), cw, options);
+                start = i;
+            }
+        }
+    }
+
+	/**
+	 * Runs the VM level optimizations selected by options over a block of commands and translates it
+	 * @param block   commands of one function
+	 * @param cw      CodeWriter to write assembly code with
+	 * @param options options of translation
+	 */
+	private static void writeBlock(List<Command> block, CodeWriter cw, Options options) {
+        if(options.foldConstants) {
+            block = ConstantFolder.fold(block);
+        }
+        if(options.threadJumps) {
+            block = BranchOptimizer.optimize(block, options.fuseBranches);
+        }
+        cw.writeCommands(block);
+    }
+
+	/**
+	 * Translates each file into its own buffer on a worker pool, then appends the buffers to output in list order
+	 * Labels are numbered per file, so the result is identical to translating the files one after another
+	 * @param files   .vm files to translate
+	 * @param program parsed files, null if each file is parsed by its worker
+	 * @param cache   cache of translated files used when each file is parsed by its worker, may be null
+	 * @param cw      CodeWriter of output file
+	 * @param options options of translation, including number of worker threads
+	 * @return false if a file contains an invalid instruction
+	 * @throws Exception if a file could not be read or holds no instructions
+	 */
+	private static boolean translateParallel(ArrayList<File> files, final Program program, final TranslationCache cache, CodeWriter cw, final Options options) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.threads, files.size()));
+        try {
+            ArrayList<Future<String>> fragments = new ArrayList<Future<String>>();
+            for(int i = 0; i < files.size(); i++) {
+                final File f = files.get(i);
+                final int index = i;
+                fragments.add(pool.submit(() -> {
+                    if(program == null) {
+                        return translateFragment(f, options, cache);
+                    }
+                    StringWriter buffer = new StringWriter();
+                    CodeWriter fileWriter = new CodeWriter(buffer);
+                    fileWriter.setOptions(options);
+                    fileWriter.setInlined(program.inlined());
+                    writeFile(program.name(index), program.commands(index), fileWriter, options);
+                    fileWriter.close();
+                    return buffer.toString();
+                }));
+            }
+            // append in file order as soon as each fragment is ready
+            for(Future<String> fragment : fragments) {
+                String asm = fragment.get();
+                if(asm == null) {
+                    return false;
+                }
+                cw.writeFragment(asm);
+            }
+            return true;
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+	/**
 	 * Generates assembly files from .vm files
+	 * The file or directory to translate is the first argument that is not a flag, ie: resources/BasicTest
+	 * Without one, it is asked for on the console
 	 * Comment out the init for the functions that do not need the BOOTSTRAP CODE
+	 * Options:
+	 *   --parallel[=threads]  translate the files of a directory on a worker pool
+	 *   --shared-calls        emit one shared call and return routine instead of inlining them
+	 *   --shared-compare      emit one shared routine per comparison kind instead of inlining eq/gt/lt
+	 *   --fuse-branches       translate eq/gt/lt followed by if-goto into a single conditional jump
+	 *   --fold-constants      evaluate constant arithmetic at translate time, apply constant operands in place
+	 *   --direct-moves        move values of push/pop pairs and short chains without touching SP
+	 *   --cache-tos           keep the top of stack in D within basic blocks
+	 *   --superinstructions   translate frequent command sequences, such as incrementing a local, with hand tuned code
+	 *   --thread-jumps        thread jump chains, reverse conditionals jumping over a goto, drop unreachable code and unused labels
+	 *   --tail-calls          reuse the frame of the current function for a call directly followed by return
+	 *   --compact-locals      zero function locals with an unrolled sequence, or a loop when the goal is size
+	 *   --goal=size|speed     prefer smaller code or fewer cycles where both are possible (default: speed)
+	 *   --peephole            remove redundant instructions from the generated code, printing how often each rule applied
+	 *   --drop-unreachable    only translate functions reachable from Sys.init, reporting the dropped ones
+	 *   --inline[=commands]   replace calls of leaf functions of at most 8 (or the given number of) commands by their body
+	 *   --hack                assemble the generated code and write a .hack file instead of the .asm file
+	 *   --cache[=dir]         reuse the code of files unchanged since an earlier run, kept in .vmcache (or dir)
+	 *   --watch[=ms]          keep running and translate again when a .vm file changes, after ms (default 100) without changes
+	 *   --vmb                 read parsed commands from up to date .vmb files next to the .vm files, writing missing ones
+	 *   --chunked-lex[=threads] memory-map large .vm files and lex chunks of them on several threads
+	 *   --batch[=threads]     translate every input as a separate program on a worker pool and print a summary
+	 *   --manifest=file       translate the programs listed in file, one per line, as with --batch
 	 * @param args
 	 */
     public static void main(String[] args) {
-    	// Hard coded value input is from cmd or from running program in console
-    	boolean console = true;
-        if(args.length > 0 || console) {
-            try {
-                ArrayList<File> files = new ArrayList<File>();
-                File input = null;
-                if(console) {
-                	Scanner kb = new Scanner(System.in);
-                	System.out.print("Please type to filename/directory: ");
-                	input = new File(kb.nextLine());
-                	kb.close();
+        try {
+            Options options = Options.parse(args);
+            if(options.batch) {
+                ArrayList<File> programs = new ArrayList<File>();
+                for(String name : options.inputs) {
+                    programs.add(new File(name));
                 }
-                else {
-                	input = new File(args[0]);
+                if(options.manifest != null) {
+                    programs.addAll(BatchTranslator.readManifest(new File(options.manifest)));
                 }
-                getFiles(input, files);
-
-                if(!files.isEmpty()) {
-                    String outputName = input.getName();
-                    if(outputName.indexOf('.') > 0) {
-                        outputName = outputName.substring(0, outputName.indexOf('.'));
-                    } else if(outputName.indexOf('/') > 0) {
-                        outputName = outputName.substring(0, outputName.indexOf('/'));
-                    }
+                if(!BatchTranslator.translate(programs, options)) {
+                    // let scripts see that a program failed
+                    System.exit(1);
+                }
+                return;
+            }
+            // input is from cmd or from running program in console
+            boolean console = options.inputs.isEmpty();
+            File input = null;
+            if(console) {
+            	Scanner kb = new Scanner(System.in);
+            	System.out.print("Please type to filename/directory: ");
+            	if(!kb.hasNextLine()) {
+            		System.out.println("No source entered.");
+            		return;
+            	}
+            	input = new File(kb.nextLine());
+            	kb.close();
+            }
+            else {
+            	input = new File(options.inputs.get(0));
+            }
 
-                    File output;
-                    if(input.isFile()) {
-                        output = new File(input.getParent(), outputName + ".asm");
-                    } else {
-                        output = new File(input, outputName + ".asm");
-                    }
+            if(options.watch) {
+                TranslationWatcher.watch(input, options);
+            }
+            else if(translate(input, options) != null) {
+                System.out.println((options.hack ? ".hack" : ".asm") + " file created. You can find it in the same directory as the file input");
+            }
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-                    CodeWriter cw = new CodeWriter(output);
-
-                    //Comment this out if not using it
-                    cw.writeInit();
-
-                    for(File f : files) {
-                        String name = f.getName();
-                        name = name.substring(0, name.indexOf('.'));
-                        cw.setFileName(name);
-
-                        Parser p = new Parser(f);
-                        while(true) {
-                            if(p.commandType() == 0) {
-                                System.out.println(f + " contains an invalid instruction.");
-                                return;
-                            }
-
-                            if(p.commandType() == Parser.C_ARITHMETIC) {
-                                cw.writeArithmetic(p.arg1());
-                            } 
-                            else if(p.commandType() == Parser.C_PUSH || p.commandType() == Parser.C_POP) {
-                                cw.writePushPop(p.commandType(), p.arg1(), p.arg2());
-                            } 
-                            else if(p.commandType() == Parser.C_LABEL) {
-                                cw.writeLabel(p.arg1());
-                            } 
-                            else if(p.commandType() == Parser.C_GOTO) {
-                                cw.writeGoto(p.arg1());
-                            } 
-                            else if(p.commandType() == Parser.C_IF) {
-                                cw.writeIf(p.arg1());
-                            } 
-                            else if(p.commandType() == Parser.C_FUNCTION) {
-                                cw.writeFunction(p.arg1(), p.arg2());
-                            } 
-                            else if(p.commandType() == Parser.C_CALL) {
-                                cw.writeCall(p.arg1(), p.arg2());
-                            } 
-                            else if(p.commandType() == Parser.C_RETURN) {
-                                cw.writeReturn();
-                            }
-
-                            if(p.hasMoreCommands()) {
-                                p.advance();
-                            } else break;
-                        }
-                    }
-                    System.out.println(".asm file created. You can find it in the same directory as the file input");
-                    cw.close();
-                } 
-                else {
-                    System.out.println("No .vm files found.");
-                }
+	/**
+	 * Translates a .vm file, or all .vm files found in a directory, into one .asm file, or .hack file if options say so
+	 * The output file is placed next to a .vm file input, or inside a directory input
+	 * @param input   .vm file or directory to translate
+	 * @param options options of translation
+	 * @return .asm or .hack file created, null if no .vm files were found or one contains an invalid instruction
+	 * @throws Exception if input could not be read or output could not be written
+	 */
+	public static File translate(File input, Options options) throws Exception {
+        return translate(input, options, null);
+    }
+
+	/**
+	 * Translates a .vm file, or all .vm files found in a directory, reusing translated files kept by a caller
+	 * @param input   .vm file or directory to translate
+	 * @param options options of translation
+	 * @param cache   cache of translated files kept across calls, null to use one only if options ask for it
+	 * @return .asm or .hack file created, null if no .vm files were found or one contains an invalid instruction
+	 * @throws Exception if input could not be read or output could not be written
+	 */
+	public static File translate(File input, Options options, TranslationCache cache) throws Exception {
+        ArrayList<File> files = new ArrayList<File>();
+        getFiles(input, files);
+        if(files.isEmpty()) {
+            System.out.println("No .vm files found.");
+            return null;
+        }
+
+        File output = outputFile(input, options);
+
+        // the integrated assembler takes the code straight from CodeWriter, no .asm text is written or read back
+        Writer out = options.hack ? new HackAssembler(output) : new BufferedWriter(new FileWriter(output));
+        PeepholeOptimizer peephole = null;
+        if(options.peephole) {
+            // every fragment passes through one optimizer in front of the output file
+            peephole = new PeepholeOptimizer(out);
+            out = peephole;
+        }
+        CodeWriter cw = new CodeWriter(out);
+        cw.setOptions(options);
+
+        //Comment this out if not using it
+        cw.writeInit();
+
+        // whole program optimizations need every file parsed before code is generated
+        Program program = null;
+        if(options.wholeProgram()) {
+            program = Program.parse(files, options);
+            if(program == null) {
+                cw.close();
+                return null;
+            }
+            if(options.dropUnreachable) {
+                CallGraph.removeUnreachable(program);
+            }
+            if(options.inline) {
+                program.setInlined(Inliner.inline(program, options.inlineLimit, options));
+                cw.setInlined(program.inlined());
+            }
+        }
 
-            } catch (Exception e) {
-                System.out.println("Error: " + e.getMessage());
-                e.printStackTrace();
+        // code of a file only depends on the file itself unless the whole program is optimized
+        if(program != null) {
+            if(options.cache) {
+                System.out.println("Translation cache is not used with whole program optimizations.");
             }
+            cache = null;
+        } else if(cache == null && options.cache) {
+            cache = new TranslationCache(cacheDir(output, options), options);
         }
-        else {
-            System.out.println("No source entered.");
+        int hits = cache != null ? cache.hits() : 0;
+
+        boolean valid = true;
+        if(options.parallel) {
+            valid = translateParallel(files, program, cache, cw, options);
+        } else if(program != null) {
+            for(int i = 0; i < program.size(); i++) {
+                writeFile(program.name(i), program.commands(i), cw, options);
+            }
+        } else if(cache != null) {
+            for(File f : files) {
+                String fragment = translateFragment(f, options, cache);
+                if(fragment == null) {
+                    valid = false;
+                    break;
+                }
+                cw.writeFragment(fragment);
+            }
+        } else {
+            for(File f : files) {
+                if(!translateFile(f, null, cw, options)) {
+                    valid = false;
+                    break;
+                }
+            }
+        }
+        if(!valid) {
+            cw.close();
+            return null;
+        }
+        cw.writeSharedRoutines();
+        cw.close();
+        if(peephole != null) {
+            peephole.printReport(System.out);
+        }
+        if(cache != null) {
+            System.out.println("Translation cache: " + (cache.hits() - hits) + " of " + files.size() + " files reused");
         }
+        return output;
+    }
+
+	/**
+	 * @param input   .vm file or directory to translate
+	 * @param options options of translation
+	 * @return .asm or .hack file next to a .vm file input, or inside a directory input
+	 */
+	static File outputFile(File input, Options options) {
+        String outputName = input.getName();
+        if(outputName.indexOf('.') > 0) {
+            outputName = outputName.substring(0, outputName.indexOf('.'));
+        } else if(outputName.indexOf('/') > 0) {
+            outputName = outputName.substring(0, outputName.indexOf('/'));
+        }
+
+        String extension = options.hack ? ".hack" : ".asm";
+        if(input.isFile()) {
+            return new File(input.getParent(), outputName + extension);
+        }
+        return new File(input, outputName + extension);
+    }
+
+	/**
+	 * @param output  .asm or .hack file translated into
+	 * @param options options of translation
+	 * @return directory translation cache is kept in
+	 */
+	static File cacheDir(File output, Options options) {
+        return options.cacheDir != null ? new File(options.cacheDir) : new File(output.getAbsoluteFile().getParentFile(), ".vmcache");
     }
 }